@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.benchmarks;
+
+import com.google.common.io.Files;
+import com.inetpsa.seed.plugin.components.ArtifactResolver;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.project.DefaultProjectBuildingRequest;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.resolution.VersionRangeRequest;
+import org.eclipse.aether.resolution.VersionRangeResult;
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.eclipse.aether.version.InvalidVersionSpecificationException;
+import org.eclipse.aether.version.Version;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Generated inputs for the benchmarks, so they run offline and on identical data: jars with class-like entries, a
+ * file-based stand-in for a Maven repository and a repository system answering from it.
+ */
+public class BenchmarkFixtures {
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789()[];/<>";
+
+    private final File directory;
+    private final File repository;
+
+    public BenchmarkFixtures() {
+        this.directory = Files.createTempDir();
+        this.repository = new File(directory, "repository");
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Generates a jar whose entries look like compiled classes: a few kilobytes each of moderately compressible data.
+     *
+     * @param file       the jar to create.
+     * @param entryCount the number of entries.
+     * @param seed       the seed of the content, for reproducible jars.
+     * @param prefixes   the paths of the entries, used in turn.
+     * @return the jar file.
+     */
+    public File generateJar(File file, int entryCount, long seed, String... prefixes) throws IOException {
+        Files.createParentDirs(file);
+        Random random = new Random(seed);
+        JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(file));
+        try {
+            for (int i = 0; i < entryCount; i++) {
+                JarEntry jarEntry = new JarEntry(prefixes[i % prefixes.length] + "Class" + i + ".class");
+                jarEntry.setTime(0);
+                jarOutputStream.putNextEntry(jarEntry);
+                byte[] content = new byte[1024 + random.nextInt(4096)];
+                for (int j = 0; j < content.length; j++) {
+                    content[j] = (byte) ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+                }
+                jarOutputStream.write(content);
+                jarOutputStream.closeEntry();
+            }
+        } finally {
+            jarOutputStream.close();
+        }
+        return file;
+    }
+
+    /**
+     * Generates dependency jars.
+     *
+     * @param count      the number of jars.
+     * @param entryCount the number of entries per jar.
+     * @return the jar files.
+     */
+    public List<File> generateDependencies(int count, int entryCount) throws IOException {
+        List<File> jars = new ArrayList<File>();
+        for (int i = 0; i < count; i++) {
+            jars.add(generateJar(new File(directory, "lib/dependency-" + i + ".jar"), entryCount, i, "org/example/dependency" + i + "/"));
+        }
+        return jars;
+    }
+
+    /**
+     * Generates an artifact in the stand-in repository, with the Maven repository layout.
+     *
+     * @return the artifact file.
+     */
+    public File generateArtifact(String groupId, String artifactId, String version, int entryCount, String... prefixes) throws IOException {
+        File file = getArtifactFile(groupId, artifactId, version);
+        generateJar(file, entryCount, (groupId + artifactId + version).hashCode(), prefixes);
+        return file;
+    }
+
+    /**
+     * Generates a version list as found in repository metadata, in ascending order, with a snapshot every tenth version.
+     *
+     * @param count the number of versions.
+     * @return the versions.
+     */
+    public static List<String> generateVersions(int count) {
+        List<String> versions = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            String version = (i / 100) + "." + (i / 10 % 10) + "." + (i % 10);
+            versions.add(i % 10 == 9 ? version + "-SNAPSHOT" : version);
+        }
+        return versions;
+    }
+
+    /**
+     * Creates a repository system answering version range requests with the specified versions and artifact requests
+     * from the stand-in repository. Other operations are not supported.
+     */
+    public RepositorySystem createRepositorySystem(List<String> versions) throws InvalidVersionSpecificationException {
+        GenericVersionScheme versionScheme = new GenericVersionScheme();
+        final List<Version> parsedVersions = new ArrayList<Version>();
+        for (String version : versions) {
+            parsedVersions.add(versionScheme.parseVersion(version));
+        }
+
+        return (RepositorySystem) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{RepositorySystem.class}, new InvocationHandler() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("resolveVersionRange".equals(method.getName())) {
+                    VersionRangeResult versionRangeResult = new VersionRangeResult((VersionRangeRequest) args[1]);
+                    versionRangeResult.setVersions(parsedVersions);
+                    return versionRangeResult;
+                } else if ("resolveArtifact".equals(method.getName())) {
+                    return resolve((ArtifactRequest) args[1]);
+                } else if ("resolveArtifacts".equals(method.getName())) {
+                    List<ArtifactResult> artifactResults = new ArrayList<ArtifactResult>();
+                    for (ArtifactRequest artifactRequest : (Collection<ArtifactRequest>) args[1]) {
+                        artifactResults.add(resolve(artifactRequest));
+                    }
+                    return artifactResults;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * Creates a project whose repository session is usable by the {@link ArtifactResolver}.
+     */
+    public MavenProject createProject() {
+        MavenProject mavenProject = new MavenProject();
+        mavenProject.setProjectBuildingRequest(new DefaultProjectBuildingRequest().setRepositorySession(new DefaultRepositorySystemSession()));
+        return mavenProject;
+    }
+
+    /**
+     * Creates an artifact resolver backed by the specified repository system, as the container would inject it.
+     */
+    public ArtifactResolver createArtifactResolver(RepositorySystem repositorySystem) throws ReflectiveOperationException {
+        ArtifactResolver artifactResolver = new ArtifactResolver();
+        Field field = ArtifactResolver.class.getDeclaredField("repositorySystem");
+        field.setAccessible(true);
+        field.set(artifactResolver, repositorySystem);
+        return artifactResolver;
+    }
+
+    public void delete() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    private ArtifactResult resolve(ArtifactRequest artifactRequest) throws ArtifactResolutionException {
+        ArtifactResult artifactResult = new ArtifactResult(artifactRequest);
+        Artifact artifact = artifactRequest.getArtifact();
+        File file = getArtifactFile(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion());
+        if (!file.isFile()) {
+            artifactResult.addException(new IOException("Artifact not found in stand-in repository: " + artifact));
+            throw new ArtifactResolutionException(Collections.singletonList(artifactResult));
+        }
+        artifactResult.setArtifact(artifact.setFile(file));
+        return artifactResult;
+    }
+
+    private File getArtifactFile(String groupId, String artifactId, String version) {
+        return new File(repository, groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/" + artifactId + "-" + version + ".jar");
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.benchmarks;
+
+import com.google.common.base.Predicate;
+import com.inetpsa.seed.plugin.archive.ArchiveEntry;
+import com.inetpsa.seed.plugin.archive.ArchiveReader;
+import com.inetpsa.seed.plugin.archive.ArchiveWriter;
+import com.inetpsa.seed.plugin.components.ArtifactResolver;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction of the Capsule classes into a capsule: resolution and filtered copy of the Capsule artifact, and splicing
+ * of a cached payload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CapsuleExtractionBenchmark {
+    private static final String CAPSULE_GROUP_ID = "co.paralleluniverse";
+    private static final String CAPSULE_ARTIFACT_ID = "capsule";
+    private static final String CAPSULE_VERSION = "1.0.1";
+    private static final Predicate<String> CAPSULE_FILTER = new Predicate<String>() {
+        @Override
+        public boolean apply(String name) {
+            return name.startsWith("capsule") || name.equals("Capsule.class");
+        }
+    };
+
+    private BenchmarkFixtures fixtures;
+    private ArtifactResolver artifactResolver;
+    private MavenProject mavenProject;
+    private File payload;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixtures = new BenchmarkFixtures();
+        // Half of the entries are Capsule classes, the others must be filtered out
+        File capsuleJar = fixtures.generateArtifact(CAPSULE_GROUP_ID, CAPSULE_ARTIFACT_ID, CAPSULE_VERSION, 120, "capsule/", "org/example/shaded/");
+
+        payload = new File(fixtures.getDirectory(), "capsule.payload");
+        ArchiveWriter payloadWriter = new ArchiveWriter(payload);
+        try {
+            for (ArchiveEntry entry : ArchiveReader.readEntries(capsuleJar, CAPSULE_FILTER)) {
+                payloadWriter.write(entry);
+            }
+        } finally {
+            payloadWriter.close();
+        }
+
+        artifactResolver = fixtures.createArtifactResolver(fixtures.createRepositorySystem(Collections.singletonList(CAPSULE_VERSION)));
+        mavenProject = fixtures.createProject();
+        output = new File(fixtures.getDirectory(), "capsule.jar");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixtures.delete();
+    }
+
+    @Benchmark
+    public long resolveAndCopy() throws IOException {
+        List<Artifact> artifacts = Collections.<Artifact>singletonList(new DefaultArtifact(CAPSULE_GROUP_ID, CAPSULE_ARTIFACT_ID, null, "jar", CAPSULE_VERSION));
+        File jarFile = null;
+        for (ArtifactResult artifactResult : artifactResolver.resolveArtifacts(mavenProject, artifacts, 1)) {
+            jarFile = artifactResult.getArtifact().getFile();
+        }
+
+        ArchiveWriter writer = new ArchiveWriter(output);
+        try {
+            for (ArchiveEntry entry : ArchiveReader.readEntries(jarFile, CAPSULE_FILTER)) {
+                writer.write(entry);
+            }
+        } finally {
+            writer.close();
+        }
+        return output.length();
+    }
+
+    @Benchmark
+    public long splicePayload() throws IOException {
+        ArchiveWriter writer = new ArchiveWriter(output);
+        try {
+            writer.splice(payload);
+        } finally {
+            writer.close();
+        }
+        return output.length();
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.benchmarks;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares two JMH result files in JSON format (produced with <code>-rf json</code>) and reports the benchmarks whose
+ * score degraded by more than a threshold. Exits with status 1 if a regression is found.
+ * <pre>
+ * java -cp target/benchmarks.jar com.inetpsa.seed.plugin.benchmarks.CompareResults baseline.json current.json [threshold percent]
+ * </pre>
+ */
+public class CompareResults {
+    private static final Pattern BENCHMARK = Pattern.compile("\"benchmark\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern MODE = Pattern.compile("\"mode\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern PARAMS = Pattern.compile("\"params\"\\s*:\\s*\\{([^}]*)\\}");
+    private static final Pattern SCORE = Pattern.compile("\"primaryMetric\"\\s*:\\s*\\{\\s*\"score\"\\s*:\\s*([-+0-9.eE]+)");
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CompareResults <baseline.json> <current.json> [threshold percent, default 10]");
+            System.exit(2);
+        }
+
+        Map<String, Result> reference = parse(new File(args[0]));
+        Map<String, Result> current = parse(new File(args[1]));
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+
+        boolean regression = false;
+        for (Map.Entry<String, Result> entry : current.entrySet()) {
+            Result referenceResult = reference.get(entry.getKey());
+            if (referenceResult == null) {
+                System.out.println(String.format("NEW         %s: %.3f", entry.getKey(), entry.getValue().score));
+                continue;
+            }
+
+            // Throughput is better when higher, other modes measure time
+            double change = (entry.getValue().score - referenceResult.score) / referenceResult.score * 100;
+            double degradation = "thrpt".equals(entry.getValue().mode) ? -change : change;
+            String status = degradation > threshold ? "REGRESSION" : (degradation < -threshold ? "IMPROVED" : "OK");
+            regression |= degradation > threshold;
+            System.out.println(String.format("%-11s %s: %.3f -> %.3f (%+.1f%%)", status, entry.getKey(), referenceResult.score, entry.getValue().score, change));
+        }
+
+        if (regression) {
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, Result> parse(File file) throws IOException {
+        String json = Files.toString(file, Charsets.UTF_8);
+        Map<String, Result> results = new LinkedHashMap<String, Result>();
+
+        Matcher benchmarkMatcher = BENCHMARK.matcher(json);
+        while (benchmarkMatcher.find()) {
+            int start = benchmarkMatcher.end();
+            Matcher scoreMatcher = SCORE.matcher(json);
+            if (!scoreMatcher.find(start)) {
+                break;
+            }
+
+            String section = json.substring(start, scoreMatcher.start());
+            Matcher modeMatcher = MODE.matcher(section);
+            Matcher paramsMatcher = PARAMS.matcher(section);
+            String key = benchmarkMatcher.group(1);
+            if (paramsMatcher.find()) {
+                key += " {" + paramsMatcher.group(1).replaceAll("\\s+", "").replace("\"", "") + "}";
+            }
+
+            Result result = new Result();
+            result.mode = modeMatcher.find() ? modeMatcher.group(1) : "avgt";
+            result.score = Double.parseDouble(scoreMatcher.group(1));
+            results.put(key, result);
+        }
+
+        return results;
+    }
+
+    private static class Result {
+        private String mode;
+        private double score;
+    }
+}
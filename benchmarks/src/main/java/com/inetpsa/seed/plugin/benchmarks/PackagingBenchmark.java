@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.benchmarks;
+
+import com.inetpsa.seed.plugin.archive.ArchiveEntry;
+import com.inetpsa.seed.plugin.archive.ArchiveWriter;
+import com.inetpsa.seed.plugin.archive.ParallelArchiver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Writing of nested jars and manifest, as done by the package goal for standalone capsules (formerly addToJar and
+ * addManifest).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PackagingBenchmark {
+    @Param({"false", "true"})
+    public boolean storeNestedJars;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private BenchmarkFixtures fixtures;
+    private List<File> dependencies;
+    private String dependencyString;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixtures = new BenchmarkFixtures();
+        dependencies = fixtures.generateDependencies(40, 200);
+        output = new File(fixtures.getDirectory(), "capsule.jar");
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 150; i++) {
+            sb.append("org.example:dependency-").append(i).append(":1.0.").append(i).append(' ');
+        }
+        dependencyString = sb.toString().trim();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixtures.delete();
+    }
+
+    @Benchmark
+    public long nestedJars() throws IOException {
+        ArchiveWriter writer = new ArchiveWriter(output);
+        try {
+            ParallelArchiver parallelArchiver = new ParallelArchiver(writer, threads);
+            try {
+                for (final File dependency : dependencies) {
+                    parallelArchiver.add(new Callable<ArchiveEntry>() {
+                        @Override
+                        public ArchiveEntry call() throws Exception {
+                            return storeNestedJars ? ArchiveEntry.store(dependency.getName(), dependency) : ArchiveEntry.deflate(dependency.getName(), dependency);
+                        }
+                    });
+                }
+            } finally {
+                parallelArchiver.finish();
+            }
+        } finally {
+            writer.close();
+        }
+        return output.length();
+    }
+
+    @Benchmark
+    public long manifest() throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes mainAttributes = manifest.getMainAttributes();
+        mainAttributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        mainAttributes.put(Attributes.Name.MAIN_CLASS, "MavenCapsule");
+        mainAttributes.put(new Attributes.Name("Application-Class"), "org.seedstack.seed.core.SeedMain");
+        mainAttributes.put(new Attributes.Name("Application-Name"), "benchmark-capsule.jar");
+        mainAttributes.put(new Attributes.Name("Dependencies"), dependencyString);
+        mainAttributes.put(new Attributes.Name("Repositories"), "central https://repo.example.org/maven2");
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        manifest.write(outputStream);
+        return ArchiveEntry.deflate(JarFile.MANIFEST_NAME, 0, outputStream.toByteArray()).getCompressedSize();
+    }
+}
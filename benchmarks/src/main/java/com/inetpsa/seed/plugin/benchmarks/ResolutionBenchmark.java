@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.benchmarks;
+
+import com.inetpsa.seed.plugin.components.ArtifactResolver;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Exclusion;
+import org.apache.maven.project.MavenProject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolution helpers of the {@link ArtifactResolver}: dependency conversion and highest version selection over a
+ * synthetic version list. The repository system answers from memory so only the plugin logic is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResolutionBenchmark {
+    @Param({"10", "100", "1000"})
+    public int versionCount;
+
+    private BenchmarkFixtures fixtures;
+    private ArtifactResolver artifactResolver;
+    private MavenProject mavenProject;
+    private Dependency dependency;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixtures = new BenchmarkFixtures();
+        artifactResolver = fixtures.createArtifactResolver(fixtures.createRepositorySystem(BenchmarkFixtures.generateVersions(versionCount)));
+        mavenProject = fixtures.createProject();
+
+        dependency = new Dependency();
+        dependency.setGroupId("org.seedstack.seed");
+        dependency.setArtifactId("seed-core");
+        dependency.setVersion("2.0.0");
+        dependency.setType("jar");
+        dependency.setScope("compile");
+        for (int i = 0; i < 3; i++) {
+            Exclusion exclusion = new Exclusion();
+            exclusion.setGroupId("org.example");
+            exclusion.setArtifactId("excluded-" + i);
+            dependency.addExclusion(exclusion);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixtures.delete();
+    }
+
+    @Benchmark
+    public Object convertDependencyToAether() {
+        return artifactResolver.convertDependencyToAether(dependency);
+    }
+
+    @Benchmark
+    public String getHighestVersion() {
+        return artifactResolver.getHighestVersion(mavenProject, "co.paralleluniverse", "capsule", false);
+    }
+}
@@ -9,6 +9,11 @@
  */
 package com.inetpsa.seed.plugin;
 
+import com.google.common.base.Joiner;
+import com.inetpsa.seed.plugin.runtime.ExecutionDaemon;
+import com.inetpsa.seed.plugin.runtime.ForkedLauncher;
+import com.inetpsa.seed.plugin.runtime.OverlayClassLoader;
+import org.apache.commons.io.FileUtils;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.model.Resource;
 import org.apache.maven.plugin.AbstractMojo;
@@ -18,9 +23,9 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLClassLoader;
 import java.security.CodeSource;
 import java.util.ArrayList;
 import java.util.List;
@@ -29,6 +34,7 @@ import java.util.List;
  * Base class for all goals executing a SeedStack application.
  */
 public abstract class AbstractExecutionMojo extends AbstractMojo {
+    private static final int MAX_COMMAND_LINE_LENGTH = 32767;
 
     @Parameter(defaultValue = "${project}", required = true, readonly = true)
     private MavenProject project;
@@ -39,29 +45,104 @@ public abstract class AbstractExecutionMojo extends AbstractMojo {
     @Parameter(property = "mainClass", defaultValue = SeedStackConstants.mainClassName, required = true)
     private String mainClass;
 
-    @Parameter(property = "args")
-    private String args;
+    @Parameter(property = "shutdownTimeout", defaultValue = "10")
+    private long shutdownTimeout;
+
+    @Parameter(property = "profile", defaultValue = "false")
+    private boolean profile;
+
+    @Parameter(property = "fork", defaultValue = "false")
+    private boolean fork;
+
+    @Parameter(property = "jvm")
+    private String jvm;
+
+    @Parameter(property = "jvmArgs")
+    private List<String> jvmArgs;
+
+    // Defaults to the argument file when the forked JVM supports it (Java 9+)
+    @Parameter(property = "forkArgFile")
+    private Boolean forkArgFile;
+
+    @Parameter(property = "daemon", defaultValue = "false")
+    private boolean daemon;
+
+    @Parameter(property = "daemonIdleTimeout", defaultValue = "1800")
+    private long daemonIdleTimeout;
+
+    @Parameter(property = "daemonJvmArgs")
+    private List<String> daemonJvmArgs;
+
+    @Parameter(defaultValue = "${project.build.directory}/seedstack-daemon", required = true)
+    private File daemonDirectory;
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
-        IsolatedThreadGroup isolatedThreadGroup = new IsolatedThreadGroup(mainClass);
+        if (fork) {
+            executeInForkedJvm();
+            return;
+        } else if (daemon) {
+            if (profile) {
+                getLog().warn("Profiling is not available in the execution daemon");
+            }
+            executeInDaemon();
+            return;
+        }
+
+        final IsolatedThreadGroup isolatedThreadGroup = new IsolatedThreadGroup(mainClass);
+        final Thread waitingThread = Thread.currentThread();
+        final StartupProfiler startupProfiler = isProfile() ? new StartupProfiler(getRecordingFile(), getLog()) : null;
 
         Thread bootstrapThread = new Thread(isolatedThreadGroup, new Runnable() {
             public void run() {
                 try {
-                    doRun(Thread.currentThread().getContextClassLoader());
+                    ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+                    if (startupProfiler != null) {
+                        startupProfiler.start(Thread.currentThread(), contextClassLoader);
+                        try {
+                            doRun(contextClassLoader);
+                        } finally {
+                            startupProfiler.stop();
+                            startupProfiler.report(contextClassLoader);
+                        }
+                    } else {
+                        doRun(contextClassLoader);
+                    }
                 } catch (Exception e) {
                     Thread.currentThread().getThreadGroup().uncaughtException(Thread.currentThread(), new Exception("Unable to execute goal", e));
-                    System.exit(-1);
+                    // The application has failed, its remaining threads are given the graceful shutdown period
+                    waitingThread.interrupt();
                 }
             }
         }, "main");
 
-        bootstrapThread.setContextClassLoader(new URLClassLoader(getClassPathUrls()));
+        ClassLoader classLoader = createClassLoader();
+        bootstrapThread.setContextClassLoader(classLoader);
 
-        bootstrapThread.start();
+        final ApplicationTracker applicationTracker = new ApplicationTracker(isolatedThreadGroup, classLoader);
+        Thread shutdownHook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                awaitShutdown(applicationTracker);
+                applicationTracker.stop();
+            }
+        }, "seedstack-shutdown");
 
-        joinThreads(isolatedThreadGroup);
+        applicationTracker.start();
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        try {
+            bootstrapThread.start();
+            applicationTracker.awaitTermination(0);
+        } catch (InterruptedException e) {
+            awaitShutdown(applicationTracker);
+        } finally {
+            applicationTracker.stop();
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // the JVM is already shutting down
+            }
+        }
 
         synchronized (isolatedThreadGroup) {
             if (isolatedThreadGroup.uncaughtException != null) {
@@ -70,60 +151,194 @@ public abstract class AbstractExecutionMojo extends AbstractMojo {
         }
     }
 
-    protected abstract void doRun(ClassLoader contextClassLoader) throws Exception;
+    private void awaitShutdown(ApplicationTracker applicationTracker) {
+        try {
+            if (!applicationTracker.awaitTermination(shutdownTimeout * 1000)) {
+                for (Thread thread : applicationTracker.interrupt()) {
+                    getLog().warn(String.format("Thread %s did not stop within %d seconds, interrupted", thread, shutdownTimeout));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-    private void joinThreads(ThreadGroup threadGroup) {
-        boolean found;
+    protected abstract void doRun(ClassLoader contextClassLoader) throws Exception;
 
-        do {
-            found = false;
+    /**
+     * @return the command executing this goal out of the Maven JVM, in an {@link ExecutionDaemon} or a forked JVM.
+     */
+    protected abstract String getCommand();
 
-            for (Thread thread : getGroupThreads(threadGroup)) {
-                if (!thread.isDaemon()) {
-                    found = true;
+    /**
+     * @return the arguments of the command executing this goal out of the Maven JVM.
+     */
+    protected abstract String[] getCommandArguments() throws MojoExecutionException;
 
-                    try {
-                        thread.join();
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
+    private void executeInForkedJvm() throws MojoExecutionException {
+        List<File> classPath = new ArrayList<File>();
+        for (URL url : getDependencyUrls()) {
+            classPath.add(FileUtils.toFile(url));
+        }
+        List<File> projectPath = new ArrayList<File>();
+        for (URL url : getProjectUrls()) {
+            projectPath.add(FileUtils.toFile(url));
+        }
 
-                    if (thread.isAlive()) {
-                        getLog().warn(String.format("Unable to stop thread %s", thread));
-                    }
-                }
+        // The plugin jar and the project dependencies are the class path of the JVM, so the plugin classes see the
+        // dependencies. The launcher loads the project resources and classes on top of them, as the execution daemon does
+        ForkedJvm forkedJvm = new ForkedJvm(getLog())
+                .javaExecutable(jvm)
+                .jvmArgs(jvmArgs)
+                .jvmArg("-D" + ForkedLauncher.PROJECT_PATH_PROPERTY + "=" + Joiner.on(File.pathSeparator).join(projectPath))
+                .classPath(classPath)
+                .mainClass(ForkedLauncher.class.getName())
+                .workingDirectory(project.getBasedir())
+                .outputStream(System.out);
+
+        if (profile) {
+            int javaVersion = forkedJvm.getJavaVersion();
+            if (javaVersion >= 0 && javaVersion < 11) {
+                // Flight recording is a commercial feature of Oracle JDK 8 and is missing from OpenJDK 8 before 8u262
+                getLog().warn("Forked JVM is Java " + javaVersion + ", flight recording requires Java 11+, the startup is not profiled");
+            } else {
+                // Only the flight recording is available out of the Maven JVM, it is dumped when the JVM exits
+                forkedJvm.jvmArg(StartupProfiler.getRecordingJvmArg(getRecordingFile()));
             }
-        } while (found);
+        }
+
+        forkedJvm.args(new String[]{getCommand()}).args(getCommandArguments());
+
+        if (useArgFile(forkedJvm)) {
+            forkedJvm.argFile(new File(project.getBuild().getDirectory(), "seedstack-" + getCommand() + ".args"));
+        }
+
+        int exitCode;
+        try {
+            exitCode = forkedJvm.run(0, null);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to fork JVM", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while executing the Seed application in a forked JVM", e);
+        }
+
+        if (exitCode != 0) {
+            throw new MojoExecutionException("The Seed application exited with code " + exitCode);
+        }
     }
 
-    Thread[] getGroupThreads(final ThreadGroup group) {
-        int nAlloc = group.activeCount();
-        int n;
-        Thread[] threads;
+    private void executeInDaemon() throws MojoExecutionException {
+        List<File> classPath = new ArrayList<File>();
+        for (URL url : getDependencyUrls()) {
+            classPath.add(FileUtils.toFile(url));
+        }
+
+        DaemonClient daemonClient = new DaemonClient(daemonDirectory, classPath, daemonJvmArgs == null ? new ArrayList<String>() : daemonJvmArgs, daemonIdleTimeout, getLog());
+        String error;
+        try {
+            error = daemonClient.execute(getCommand(), getCommandArguments(), getProjectUrls(), System.out, System.err);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to execute the Seed application in the daemon", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while executing the Seed application in the daemon", e);
+        }
+
+        if (error != null) {
+            throw new MojoExecutionException("An exception occurred while executing the Seed application in the daemon:\n" + error);
+        }
+    }
 
-        do {
-            nAlloc *= 2;
-            threads = new Thread[nAlloc];
-            n = group.enumerate(threads);
-        } while (n == nAlloc);
+    /**
+     * Argument files avoid the command line length limit of the OS (32K characters on Windows) but require Java 9+.
+     */
+    private boolean useArgFile(ForkedJvm forkedJvm) {
+        int javaVersion = forkedJvm.getJavaVersion();
+        boolean supported = javaVersion >= 9;
+        if (Boolean.FALSE.equals(forkArgFile)) {
+            getLog().debug("Argument file disabled, passing the forked JVM arguments on the command line");
+            return false;
+        } else if (supported) {
+            getLog().debug("Forked JVM is Java " + javaVersion + ", passing its arguments through an argument file");
+            return true;
+        }
+
+        String reason = javaVersion < 0 ? "Unable to determine the version of the forked JVM" : "Forked JVM is Java " + javaVersion;
+        if (Boolean.TRUE.equals(forkArgFile)) {
+            getLog().warn(reason + ", argument files require Java 9+, passing its arguments on the command line");
+        } else {
+            getLog().debug(reason + ", passing its arguments on the command line");
+        }
+        if (forkedJvm.getCommandLineLength() > MAX_COMMAND_LINE_LENGTH) {
+            getLog().warn("The forked JVM command line has " + forkedJvm.getCommandLineLength() + " characters and may exceed the limit of the OS");
+        }
+        return false;
+    }
+
+    /**
+     * Creates the class loader of the application, made of the project resources and classes, the plugin jar and the
+     * project dependencies. The project resource directories overlay the classes directory. When profiling, the class
+     * loader measures the time spent loading classes from each jar.
+     */
+    protected ClassLoader createClassLoader() throws MojoExecutionException {
+        if (isProfile()) {
+            return new ProfilingClassLoader(getProjectUrls(), getDependencyUrls(), ClassLoader.getSystemClassLoader());
+        }
+        return new OverlayClassLoader(getProjectUrls(), getDependencyUrls(), ClassLoader.getSystemClassLoader());
+    }
+
+    /**
+     * @return true if the startup of the application, which ends when {@link #doRun(ClassLoader)} returns, is profiled.
+     */
+    protected boolean isProfile() {
+        return profile;
+    }
 
-        return java.util.Arrays.copyOf(threads, n);
+    private File getRecordingFile() {
+        return new File(project.getBuild().getDirectory(), "seedstack-" + getCommand() + ".jfr");
     }
 
-    private URL[] getClassPathUrls() throws MojoExecutionException {
+    /**
+     * @return the directories holding the project resources and classes, which change while developing.
+     */
+    protected List<File> getProjectDirectories() {
+        List<File> directories = new ArrayList<File>();
+        for (Resource resource : this.project.getResources()) {
+            directories.add(new File(resource.getDirectory()));
+        }
+        directories.add(this.classesDirectory);
+        return directories;
+    }
+
+    /**
+     * @return the URLs of the project resources and classes, as expected by {@link OverlayClassLoader}.
+     */
+    protected List<URL> getProjectUrls() throws MojoExecutionException {
         List<URL> urls = new ArrayList<URL>();
 
         try {
             // Project resources
             for (Resource resource : this.project.getResources()) {
-                File directory = new File(resource.getDirectory());
-                urls.add(directory.toURI().toURL());
-                removeDuplicatesFromOutputDirectory(this.classesDirectory, directory);
+                urls.add(new File(resource.getDirectory()).toURI().toURL());
             }
 
             // Project classes
             urls.add(this.classesDirectory.toURI().toURL());
+        } catch (MalformedURLException e) {
+            throw new MojoExecutionException("Unable to build classpath", e);
+        }
+
+        return urls;
+    }
+
+    /**
+     * @return the URLs of the plugin jar and of the project dependencies, which do not change while developing.
+     */
+    protected List<URL> getDependencyUrls() throws MojoExecutionException {
+        List<URL> urls = new ArrayList<URL>();
 
+        try {
             // Plugin jar
             CodeSource src = AbstractExecutionMojo.class.getProtectionDomain().getCodeSource();
             if (src != null) {
@@ -141,23 +356,7 @@ public abstract class AbstractExecutionMojo extends AbstractMojo {
             throw new MojoExecutionException("Unable to build classpath", e);
         }
 
-        return urls.toArray(new URL[urls.size()]);
-    }
-
-    public void removeDuplicatesFromOutputDirectory(File outputDirectory, File originDirectory) {
-        if (originDirectory.isDirectory()) {
-            for (String name : originDirectory.list()) {
-                File targetFile = new File(outputDirectory, name);
-                if (targetFile.exists() && targetFile.canWrite()) {
-                    if (!targetFile.isDirectory()) {
-                        targetFile.delete();
-                    } else {
-                        removeDuplicatesFromOutputDirectory(targetFile,
-                                new File(originDirectory, name));
-                    }
-                }
-            }
-        }
+        return urls;
     }
 
     class IsolatedThreadGroup extends ThreadGroup {
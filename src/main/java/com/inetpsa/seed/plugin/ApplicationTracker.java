@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tracks the lifecycle of an application executed in the Maven JVM. Like the JVM itself, the application is considered
+ * finished when none of its non-daemon platform threads is alive: virtual threads are always daemon threads and do not
+ * keep an application alive. Waiting is driven by thread termination: the tracker joins all the live threads of one
+ * enumeration of the application thread group, then enumerates it again to catch the threads started in the meantime.
+ * <p>
+ * Virtual threads do not belong to the thread group of their creator, so their uncaught exceptions would escape the
+ * application thread group. While tracking, a default uncaught exception handler forwards those of the virtual threads
+ * created by the application, recognized by their context class loader, to the application thread group. The previous
+ * default handler is restored when tracking stops. Virtual threads are detected through reflection since they only exist
+ * in Java 21+.
+ */
+class ApplicationTracker {
+    private static final Method IS_VIRTUAL_METHOD = getIsVirtualMethod();
+
+    private final ThreadGroup threadGroup;
+    private final ClassLoader classLoader;
+    private Thread[] threads = new Thread[16];
+    private Thread.UncaughtExceptionHandler previousHandler;
+    private Thread.UncaughtExceptionHandler handler;
+
+    /**
+     * Creates a tracker.
+     *
+     * @param threadGroup the thread group of the application.
+     * @param classLoader the class loader of the application.
+     */
+    ApplicationTracker(ThreadGroup threadGroup, ClassLoader classLoader) {
+        this.threadGroup = threadGroup;
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Starts forwarding the uncaught exceptions of the application virtual threads.
+     */
+    synchronized void start() {
+        previousHandler = Thread.getDefaultUncaughtExceptionHandler();
+        handler = new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable throwable) {
+                if (isVirtual(thread) && isApplicationClassLoader(thread.getContextClassLoader())) {
+                    threadGroup.uncaughtException(thread, throwable);
+                } else if (previousHandler != null) {
+                    previousHandler.uncaughtException(thread, throwable);
+                } else if (!(throwable instanceof ThreadDeath)) {
+                    // Same as the JVM without default handler, delegating to the thread group would come back here
+                    System.err.print("Exception in thread \"" + thread.getName() + "\" ");
+                    throwable.printStackTrace(System.err);
+                }
+            }
+        };
+        Thread.setDefaultUncaughtExceptionHandler(handler);
+    }
+
+    /**
+     * Restores the previous default uncaught exception handler, including over a handler set by the application.
+     */
+    synchronized void stop() {
+        if (handler != null) {
+            Thread.setDefaultUncaughtExceptionHandler(previousHandler);
+            handler = null;
+        }
+    }
+
+    /**
+     * Waits for the application to finish.
+     *
+     * @param timeout the maximum time to wait in milliseconds, 0 to wait forever.
+     * @return true if the application has finished, false if the timeout expired.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    boolean awaitTermination(long timeout) throws InterruptedException {
+        long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+        List<Thread> liveThreads;
+        while (!(liveThreads = findLiveThreads()).isEmpty()) {
+            for (Thread thread : liveThreads) {
+                if (timeout > 0) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    thread.join(remaining);
+                } else {
+                    thread.join();
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Interrupts the live non-daemon threads of the application.
+     *
+     * @return the interrupted threads.
+     */
+    List<Thread> interrupt() {
+        List<Thread> liveThreads = findLiveThreads();
+        for (Thread thread : liveThreads) {
+            thread.interrupt();
+        }
+        return liveThreads;
+    }
+
+    private synchronized List<Thread> findLiveThreads() {
+        List<Thread> liveThreads = new ArrayList<Thread>();
+        int count = enumerate();
+        for (int i = 0; i < count; i++) {
+            if (threads[i].isAlive() && !threads[i].isDaemon()) {
+                liveThreads.add(threads[i]);
+            }
+        }
+        // Terminated threads must not be retained by the array
+        Arrays.fill(threads, 0, count, null);
+        return liveThreads;
+    }
+
+    private int enumerate() {
+        int count;
+        while ((count = threadGroup.enumerate(threads)) == threads.length) {
+            threads = new Thread[threads.length * 2];
+        }
+        return count;
+    }
+
+    private boolean isApplicationClassLoader(ClassLoader contextClassLoader) {
+        for (ClassLoader current = contextClassLoader; current != null; current = current.getParent()) {
+            if (current == classLoader) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL_METHOD == null) {
+            return false;
+        }
+
+        try {
+            return (Boolean) IS_VIRTUAL_METHOD.invoke(thread);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static Method getIsVirtualMethod() {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
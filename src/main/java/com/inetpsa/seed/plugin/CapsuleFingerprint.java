@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Fingerprint of all the inputs of a capsule. It is recorded next to the capsule once built, so an identical subsequent
+ * build can be skipped. Input files are identified by path, size and modification time, not by content.
+ */
+class CapsuleFingerprint {
+    private static final String SUFFIX = ".fingerprint";
+    private final Hasher hasher = Hashing.sha1().newHasher();
+
+    CapsuleFingerprint putString(String value) {
+        if (value == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(value.length()).putUnencodedChars(value);
+        }
+        return this;
+    }
+
+    CapsuleFingerprint putBytes(byte[] bytes) {
+        hasher.putInt(bytes.length).putBytes(bytes);
+        return this;
+    }
+
+    CapsuleFingerprint putFile(File file) {
+        putString(file.getAbsolutePath());
+        hasher.putLong(file.length()).putLong(file.lastModified());
+        return this;
+    }
+
+    String getValue() {
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Checks if the capsule has been built from the same inputs and has not been modified since.
+     *
+     * @param capsuleFile the capsule file.
+     * @param value       the fingerprint of the current inputs.
+     * @return true if the capsule is up to date, false otherwise.
+     */
+    static boolean isUpToDate(File capsuleFile, String value) throws IOException {
+        File fingerprintFile = getFingerprintFile(capsuleFile);
+        if (!capsuleFile.isFile() || !fingerprintFile.isFile()) {
+            return false;
+        }
+
+        List<String> lines = Files.readLines(fingerprintFile, Charsets.UTF_8);
+        return lines.size() == 3
+                && lines.get(0).equals(value)
+                && lines.get(1).equals(String.valueOf(capsuleFile.length()))
+                && lines.get(2).equals(String.valueOf(capsuleFile.lastModified()));
+    }
+
+    /**
+     * Forgets the fingerprint of the capsule, which will be rebuilt on next invocation.
+     *
+     * @param capsuleFile the capsule file.
+     */
+    static void invalidate(File capsuleFile) throws IOException {
+        File fingerprintFile = getFingerprintFile(capsuleFile);
+        if (fingerprintFile.exists() && !fingerprintFile.delete()) {
+            throw new IOException("Unable to delete " + fingerprintFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Records the fingerprint of the capsule, along with its size and modification time.
+     *
+     * @param capsuleFile the capsule file.
+     * @param value       the fingerprint of the inputs the capsule was built from.
+     */
+    static void record(File capsuleFile, String value) throws IOException {
+        Files.write(value + "\n" + capsuleFile.length() + "\n" + capsuleFile.lastModified() + "\n", getFingerprintFile(capsuleFile), Charsets.UTF_8);
+    }
+
+    private static File getFingerprintFile(File capsuleFile) {
+        return new File(capsuleFile.getParentFile(), capsuleFile.getName() + SUFFIX);
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin;
+
+import com.google.common.base.Predicate;
+import com.inetpsa.seed.plugin.archive.ArchiveEntry;
+import com.inetpsa.seed.plugin.archive.ArchiveReader;
+import com.inetpsa.seed.plugin.archive.ArchiveWriter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Local cache of Capsule runtime payloads. A payload holds the entries of a Capsule artifact that must be added to each
+ * capsule, already filtered and in compressed form. It is stored as an archive produced by {@link ArchiveWriter}, which
+ * can be spliced as-is into a capsule: its entries region is the blob and its central directory is the index. SNAPSHOT
+ * versions are never cached.
+ */
+class CapsuleRuntimeCache {
+    private final File directory;
+
+    CapsuleRuntimeCache(File directory) {
+        this.directory = new File(directory, "capsule");
+    }
+
+    /**
+     * Returns the cached payload for the specified artifact.
+     *
+     * @param artifactId the Capsule artifact id.
+     * @param version    the Capsule version.
+     * @return the payload file or null if not cached.
+     */
+    File get(String artifactId, String version) {
+        if (!isCacheable(version)) {
+            return null;
+        }
+
+        File payload = getPayloadFile(artifactId, version);
+        return payload.isFile() ? payload : null;
+    }
+
+    /**
+     * Builds the payload of the specified artifact and stores it in the cache. Concurrent builds of the same payload are
+     * safe since they produce identical files which are atomically moved into place.
+     *
+     * @param artifactId the Capsule artifact id.
+     * @param version    the Capsule version.
+     * @param jarFile    the resolved Capsule artifact.
+     * @param filter     the predicate entry names must match to be part of the payload.
+     * @return the payload file or null if the version is not cacheable.
+     */
+    File put(String artifactId, String version, File jarFile, Predicate<String> filter) throws IOException {
+        if (!isCacheable(version)) {
+            return null;
+        }
+
+        File payload = getPayloadFile(artifactId, version);
+        if (!payload.getParentFile().isDirectory() && !payload.getParentFile().mkdirs() && !payload.getParentFile().isDirectory()) {
+            throw new IOException("Unable to create cache directory " + payload.getParentFile().getAbsolutePath());
+        }
+
+        File tempFile = File.createTempFile(artifactId, ".tmp", payload.getParentFile());
+        try {
+            ArchiveWriter writer = new ArchiveWriter(tempFile);
+            try {
+                for (ArchiveEntry entry : ArchiveReader.readEntries(jarFile, filter)) {
+                    writer.write(entry);
+                }
+            } finally {
+                writer.close();
+            }
+
+            if (!tempFile.renameTo(payload) && !payload.isFile()) {
+                throw new IOException("Unable to store " + payload.getAbsolutePath());
+            }
+        } finally {
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+
+        return payload;
+    }
+
+    private boolean isCacheable(String version) {
+        return version != null && !version.endsWith("-SNAPSHOT");
+    }
+
+    private File getPayloadFile(String artifactId, String version) {
+        return new File(new File(directory, version), artifactId + ".payload");
+    }
+}
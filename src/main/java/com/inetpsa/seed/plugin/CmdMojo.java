@@ -9,47 +9,119 @@
  */
 package com.inetpsa.seed.plugin;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.inetpsa.seed.plugin.runtime.ExecutionDaemon;
+import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Execute;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.codehaus.plexus.util.cli.CommandLineUtils;
 
-import java.io.FileDescriptor;
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
- * Defines the run goal. This goal runs a SeedStack project.
+ * Defines the cmd goal. This goal executes commands of a SeedStack project: a single command with <code>-Dcmd</code>
+ * and <code>-Dargs</code>, or a batch of commands from the <code>commands</code> parameter or from a script with one
+ * command line per line. The commands of a batch are executed in order against the same kernel, which is only started
+ * once.
  */
 @Mojo(name = "cmd", requiresProject = true, threadSafe = true, defaultPhase = LifecyclePhase.VALIDATE, requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME)
 @Execute(phase = LifecyclePhase.PROCESS_CLASSES)
 public class CmdMojo extends AbstractExecutionMojo {
-    @Parameter(property = "cmd", required = true)
+    @Parameter(property = "cmd")
     private String cmd;
 
     @Parameter(property = "args")
     private String args;
 
+    @Parameter
+    private List<String> commands;
+
+    @Parameter(property = "script")
+    private File script;
+
+    @Override
+    protected String getCommand() {
+        return ExecutionDaemon.CMD;
+    }
+
+    @Override
+    protected String[] getCommandArguments() throws MojoExecutionException {
+        List<String[]> commandLines = new ArrayList<String[]>();
+        if (cmd != null) {
+            List<String> tokens = new ArrayList<String>();
+            tokens.add(cmd);
+            tokens.addAll(Arrays.asList(parse(args)));
+            commandLines.add(tokens.toArray(new String[tokens.size()]));
+        }
+        if (commands != null) {
+            for (String command : commands) {
+                addCommandLine(commandLines, command);
+            }
+        }
+        if (script != null) {
+            try {
+                for (String line : Files.readLines(script, Charsets.UTF_8)) {
+                    addCommandLine(commandLines, line);
+                }
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to read command script " + script.getAbsolutePath(), e);
+            }
+        }
+
+        if (commandLines.isEmpty()) {
+            throw new MojoExecutionException("No command to execute, specify cmd, commands or script");
+        }
+        return CmdMojoDelegate.toArguments(commandLines);
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     protected void doRun(ClassLoader contextClassLoader) throws Exception {
-        PrintStream stdOut = new PrintStream(new FileOutputStream(FileDescriptor.out));
-        PrintStream stdErr = new PrintStream(new FileOutputStream(FileDescriptor.err));
+        String[] commandArguments = getCommandArguments();
+        PrintStream stdOut = System.out;
+        PrintStream stdErr = System.err;
 
         System.setOut(new PrintStream(new NullOutputStream()));
         System.setErr(new PrintStream(new NullOutputStream()));
 
         try {
-            StringBuilder sb = new StringBuilder();
-            sb.append("\n\n");
-            sb.append((((Class<CmdMojoDelegate>) contextClassLoader.loadClass("com.inetpsa.seed.plugin.CmdMojoDelegate")).newInstance().call()));
-            sb.append("\n\n");
-            stdOut.print(sb.toString());
+            Callable<Object> delegate = ((Class<Callable<Object>>) contextClassLoader.loadClass("com.inetpsa.seed.plugin.CmdMojoDelegate"))
+                    .getConstructor(String[].class, PrintStream.class)
+                    .newInstance(commandArguments, stdOut);
+            stdOut.print("\n\n");
+            stdOut.print(delegate.call() + "\n\n");
+        } finally {
+            System.setOut(stdOut);
+            System.setErr(stdErr);
+        }
+    }
+
+    private void addCommandLine(List<String[]> commandLines, String commandLine) throws MojoExecutionException {
+        String trimmed = commandLine.trim();
+        if (trimmed.length() > 0 && !trimmed.startsWith("#")) {
+            commandLines.add(parse(trimmed));
+        }
+    }
+
+    private String[] parse(String commandLine) throws MojoExecutionException {
+        if (commandLine == null) {
+            return new String[0];
+        }
+        try {
+            return CommandLineUtils.translateCommandline(commandLine);
         } catch (Exception e) {
-            e.printStackTrace(stdErr);
+            throw new MojoExecutionException("Invalid command line " + commandLine, e);
         }
     }
 
@@ -9,6 +9,7 @@
  */
 package com.inetpsa.seed.plugin;
 
+import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import io.nuun.kernel.api.Kernel;
 import org.apache.commons.cli.CommandLine;
@@ -21,13 +22,64 @@ import org.seedstack.seed.core.api.CommandRegistry;
 import org.seedstack.seed.core.spi.command.Command;
 import org.seedstack.seed.core.spi.command.PrettyCommand;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 
+/**
+ * Executes a batch of commands against a single kernel, started once for all of them. This class is loaded by the
+ * application class loader, so it is created through reflection with JDK types only: the commands are flattened in an
+ * array of arguments where each command is its token count followed by its tokens, the qualified command name then its
+ * arguments and options. Commands are executed in order, their results are printed as soon as they are available and
+ * the batch stops at the first failing command.
+ */
 public class CmdMojoDelegate implements Callable<String> {
     private final CommandLineParser commandLineParser = new PosixParser();
+    private final List<String[]> commands = new ArrayList<String[]>();
+    private final PrintStream out;
+
+    /**
+     * Creates a delegate.
+     *
+     * @param arguments the flattened commands.
+     * @param out       the stream the results are printed to.
+     */
+    public CmdMojoDelegate(String[] arguments, PrintStream out) {
+        this.out = out;
+        int i = 0;
+        while (i < arguments.length) {
+            int tokenCount = Integer.parseInt(arguments[i++]);
+            if (tokenCount < 1 || i + tokenCount > arguments.length) {
+                throw new IllegalArgumentException("Invalid command arguments " + Arrays.toString(arguments));
+            }
+            commands.add(Arrays.copyOfRange(arguments, i, i + tokenCount));
+            i += tokenCount;
+        }
+    }
+
+    /**
+     * Flattens commands as expected by {@link #CmdMojoDelegate(String[], PrintStream)}.
+     *
+     * @param commands the commands, each made of its qualified name followed by its arguments and options.
+     * @return the flattened commands.
+     */
+    public static String[] toArguments(List<String[]> commands) {
+        List<String> arguments = new ArrayList<String>();
+        for (String[] command : commands) {
+            arguments.add(String.valueOf(command.length));
+            arguments.addAll(Arrays.asList(command));
+        }
+        return arguments.toArray(new String[arguments.size()]);
+    }
 
+    /**
+     * @return the summary of the batch.
+     * @throws Exception if the kernel cannot be started or a command fails.
+     */
     @Override
     @SuppressWarnings("unchecked")
     public String call() throws Exception {
@@ -45,13 +97,28 @@ public class CmdMojoDelegate implements Callable<String> {
 
             Object injector = kernel.objectGraph().as(injectorClass);
             CommandRegistry commandRegistry = (CommandRegistry) injectorClass.getMethod("getInstance", Class.class).invoke(injector, CommandRegistry.class);
-            Command command = createCommand(commandRegistry, "help", new String[]{});
 
-            if (command instanceof PrettyCommand) {
-                return ((PrettyCommand) command).prettify(command.execute(null));
-            } else {
-                return String.valueOf(command.execute(null));
+            for (int i = 0; i < commands.size(); i++) {
+                String[] tokens = commands.get(i);
+                String header = String.format("[%d/%d] %s", i + 1, commands.size(), Joiner.on(' ').join(tokens));
+                out.println(header);
+                try {
+                    Command command = createCommand(commandRegistry, tokens[0], Arrays.copyOfRange(tokens, 1, tokens.length));
+                    String result;
+                    if (command instanceof PrettyCommand) {
+                        result = ((PrettyCommand) command).prettify(command.execute(null));
+                    } else {
+                        result = String.valueOf(command.execute(null));
+                    }
+                    out.println(result);
+                    out.println();
+                    out.flush();
+                } catch (Exception e) {
+                    out.flush();
+                    throw new IllegalStateException("Command " + tokens[0] + " failed, " + i + " of " + commands.size() + " commands executed", e);
+                }
             }
+            return commands.size() + " commands executed";
         } finally {
             kernel.stop();
         }
@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.inetpsa.seed.plugin.runtime.ExecutionDaemon;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Client of the {@link ExecutionDaemon} of a project. The daemon is started on first use and replaced when its
+ * dependency set, identified by the paths, sizes and modification times of the class path files, has changed or when it
+ * is busy serving another client. Execution is retried at most {@value #MAX_ATTEMPTS} times with a new daemon.
+ */
+class DaemonClient {
+    private static final String DESCRIPTOR_NAME = "daemon.properties";
+    private static final long STARTUP_TIMEOUT = 60000;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final File directory;
+    private final List<File> classPath;
+    private final List<String> jvmArgs;
+    private final long idleTimeout;
+    private final Log log;
+    private final String key;
+
+    /**
+     * Creates a daemon client.
+     *
+     * @param directory   the directory holding the daemon descriptor and log.
+     * @param classPath   the class path of the daemon: the plugin jar and the project dependencies.
+     * @param jvmArgs     the arguments of the daemon JVM.
+     * @param idleTimeout the time in seconds after which an unused daemon exits.
+     * @param log         the log.
+     */
+    DaemonClient(File directory, List<File> classPath, List<String> jvmArgs, long idleTimeout, Log log) {
+        this.directory = directory;
+        this.classPath = classPath;
+        this.jvmArgs = jvmArgs;
+        this.idleTimeout = idleTimeout;
+        this.log = log;
+        this.key = computeKey();
+    }
+
+    /**
+     * Executes a command in the daemon, starting or replacing it if needed. The output of the command is forwarded to the
+     * specified streams.
+     *
+     * @param command          the command.
+     * @param commandArguments the arguments of the command.
+     * @param projectUrls      the URLs of the project resources and classes.
+     * @return the error message, or null if the command succeeded.
+     */
+    String execute(String command, String[] commandArguments, List<URL> projectUrls, OutputStream out, OutputStream err) throws IOException, InterruptedException {
+        return execute(command, commandArguments, projectUrls, out, err, 1);
+    }
+
+    private String execute(String command, String[] commandArguments, List<URL> projectUrls, OutputStream out, OutputStream err, int attempt) throws IOException, InterruptedException {
+        Properties descriptor = readDescriptor();
+        if (descriptor == null || !key.equals(descriptor.getProperty(ExecutionDaemon.KEY_PROPERTY))) {
+            if (descriptor != null) {
+                log.info("Dependencies changed, replacing the execution daemon");
+                stop(descriptor);
+            }
+            descriptor = start();
+        }
+
+        Socket socket;
+        try {
+            socket = connect(descriptor);
+        } catch (IOException e) {
+            log.info("Execution daemon not reachable, starting another one");
+            descriptor = start();
+            socket = connect(descriptor);
+        }
+
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            writeRequest(output, descriptor.getProperty(ExecutionDaemon.TOKEN_PROPERTY), command, commandArguments, projectUrls);
+
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (true) {
+                int frameType;
+                try {
+                    frameType = input.readByte();
+                } catch (EOFException e) {
+                    return "Execution daemon disconnected, see " + new File(directory, "daemon.log").getAbsolutePath();
+                }
+
+                switch (frameType) {
+                    case ExecutionDaemon.FRAME_OUT:
+                    case ExecutionDaemon.FRAME_ERR:
+                        byte[] bytes = new byte[input.readInt()];
+                        input.readFully(bytes);
+                        OutputStream outputStream = frameType == ExecutionDaemon.FRAME_OUT ? out : err;
+                        outputStream.write(bytes);
+                        outputStream.flush();
+                        break;
+                    case ExecutionDaemon.FRAME_DONE:
+                        int status = input.readInt();
+                        String message = input.readUTF();
+                        return status == 0 ? null : message;
+                    case ExecutionDaemon.FRAME_INVALID:
+                    case ExecutionDaemon.FRAME_BUSY:
+                        // Another client changed the dependencies or is using the daemon, retry with a new daemon. A
+                        // busy daemon exits after its current request since it has rejected this one
+                        close(socket);
+                        if (attempt >= MAX_ATTEMPTS) {
+                            throw new IOException("Execution daemon still " + (frameType == ExecutionDaemon.FRAME_BUSY ? "busy" : "replaced") + " after " + attempt + " attempts");
+                        }
+                        if (frameType == ExecutionDaemon.FRAME_BUSY) {
+                            log.info("Execution daemon busy, starting another one");
+                        }
+                        start();
+                        return execute(command, commandArguments, projectUrls, out, err, attempt + 1);
+                    default:
+                        throw new IOException("Unexpected frame " + frameType + " from execution daemon");
+                }
+            }
+        } finally {
+            close(socket);
+        }
+    }
+
+    private Properties start() throws IOException, InterruptedException {
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Unable to create directory " + directory.getAbsolutePath());
+        }
+        File descriptorFile = new File(directory, DESCRIPTOR_NAME);
+        descriptorFile.delete();
+
+        log.info("Starting execution daemon");
+        Process process = new ForkedJvm(log)
+                .jvmArgs(jvmArgs)
+                .classPath(classPath)
+                .mainClass(ExecutionDaemon.class.getName())
+                .args(new String[]{descriptorFile.getAbsolutePath(), key, String.valueOf(idleTimeout)})
+                .workingDirectory(directory)
+                .start();
+
+        // The daemon writes to its own log, its standard streams are not used
+        IOUtil.close(process.getOutputStream());
+        IOUtil.close(process.getInputStream());
+        IOUtil.close(process.getErrorStream());
+
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            Properties descriptor = readDescriptor();
+            if (descriptor != null && key.equals(descriptor.getProperty(ExecutionDaemon.KEY_PROPERTY))) {
+                return descriptor;
+            }
+
+            try {
+                process.exitValue();
+                break;
+            } catch (IllegalThreadStateException e) {
+                // still starting
+            }
+            Thread.sleep(100);
+        }
+
+        process.destroy();
+        throw new IOException("Unable to start execution daemon, see " + new File(directory, "daemon.log").getAbsolutePath());
+    }
+
+    private void stop(Properties descriptor) {
+        Socket socket = null;
+        try {
+            socket = connect(descriptor);
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            writeRequest(output, descriptor.getProperty(ExecutionDaemon.TOKEN_PROPERTY), ExecutionDaemon.STOP, null, null);
+        } catch (IOException e) {
+            log.debug("Unable to stop previous execution daemon", e);
+        } finally {
+            close(socket);
+        }
+    }
+
+    private Socket connect(Properties descriptor) throws IOException {
+        try {
+            return new Socket(InetAddress.getByName(null), Integer.parseInt(descriptor.getProperty(ExecutionDaemon.PORT_PROPERTY)));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid execution daemon descriptor", e);
+        }
+    }
+
+    private void writeRequest(DataOutputStream output, String token, String command, String[] commandArguments, List<URL> projectUrls) throws IOException {
+        output.writeUTF(token);
+        output.writeUTF(key);
+        output.writeUTF(command);
+        if (commandArguments == null) {
+            output.writeInt(0);
+        } else {
+            output.writeInt(commandArguments.length);
+            for (String commandArgument : commandArguments) {
+                output.writeUTF(commandArgument);
+            }
+        }
+        if (projectUrls == null) {
+            output.writeInt(0);
+        } else {
+            output.writeInt(projectUrls.size());
+            for (URL projectUrl : projectUrls) {
+                output.writeUTF(projectUrl.toExternalForm());
+            }
+        }
+        output.flush();
+    }
+
+    private Properties readDescriptor() {
+        File descriptorFile = new File(directory, DESCRIPTOR_NAME);
+        if (!descriptorFile.isFile()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(descriptorFile);
+            properties.load(inputStream);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            IOUtil.close(inputStream);
+        }
+        return properties;
+    }
+
+    private static void close(Socket socket) {
+        // Sockets are not closeable in Java 6
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private String computeKey() {
+        Hasher hasher = Hashing.sha1().newHasher();
+        for (String jvmArg : jvmArgs) {
+            hasher.putString(jvmArg, Charsets.UTF_8).putChar('|');
+        }
+        for (File file : classPath) {
+            hasher.putString(file.getAbsolutePath(), Charsets.UTF_8).putLong(file.length()).putLong(file.lastModified());
+        }
+        hasher.putString(System.getProperty("java.home"), Charsets.UTF_8);
+        return hasher.hash().toString();
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Launches a Java application in a separate JVM. Arguments can be passed through an argument file (supported by JDK 9+)
+ * to avoid command-line length limits. The output of the JVM is forwarded to the Maven log or to a stream.
+ */
+class ForkedJvm {
+    private static final Pattern VERSION_PATTERN = Pattern.compile("version \"(\\d+)(?:\\.(\\d+))?");
+    // The version of each Java executable is only queried once per build
+    private static final Map<String, Integer> JAVA_VERSIONS = new ConcurrentHashMap<String, Integer>();
+
+    private final Log log;
+    private final List<String> jvmArgs = new ArrayList<String>();
+    private final List<File> classPath = new ArrayList<File>();
+    private final List<String> args = new ArrayList<String>();
+    private String javaExecutable = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    private String mainClass;
+    private File workingDirectory;
+    private File argFile;
+    private PrintStream outputStream;
+
+    ForkedJvm(Log log) {
+        this.log = log;
+    }
+
+    ForkedJvm javaExecutable(String javaExecutable) {
+        if (javaExecutable != null) {
+            this.javaExecutable = javaExecutable;
+        }
+        return this;
+    }
+
+    ForkedJvm jvmArgs(List<String> jvmArgs) {
+        if (jvmArgs != null) {
+            this.jvmArgs.addAll(jvmArgs);
+        }
+        return this;
+    }
+
+    ForkedJvm jvmArg(String jvmArg) {
+        this.jvmArgs.add(jvmArg);
+        return this;
+    }
+
+    ForkedJvm classPath(List<File> classPath) {
+        this.classPath.addAll(classPath);
+        return this;
+    }
+
+    ForkedJvm mainClass(String mainClass) {
+        this.mainClass = mainClass;
+        return this;
+    }
+
+    ForkedJvm args(String[] args) {
+        if (args != null) {
+            for (String arg : args) {
+                this.args.add(arg);
+            }
+        }
+        return this;
+    }
+
+    ForkedJvm workingDirectory(File workingDirectory) {
+        this.workingDirectory = workingDirectory;
+        return this;
+    }
+
+    ForkedJvm argFile(File argFile) {
+        this.argFile = argFile;
+        return this;
+    }
+
+    /**
+     * Forwards the output of the JVM to the specified stream as-is, instead of the Maven log.
+     */
+    ForkedJvm outputStream(PrintStream outputStream) {
+        this.outputStream = outputStream;
+        return this;
+    }
+
+    /**
+     * @return the major version of the JVM (8 for 1.8, 9 and above as is), or -1 if it cannot be determined.
+     */
+    int getJavaVersion() {
+        Integer javaVersion = JAVA_VERSIONS.get(javaExecutable);
+        if (javaVersion == null) {
+            javaVersion = queryJavaVersion();
+            JAVA_VERSIONS.put(javaExecutable, javaVersion);
+        }
+        return javaVersion;
+    }
+
+    private int queryJavaVersion() {
+        String output;
+        try {
+            Process process = new ProcessBuilder(javaExecutable, "-version").redirectErrorStream(true).start();
+            IOUtil.close(process.getOutputStream());
+            try {
+                output = IOUtil.toString(process.getInputStream());
+            } finally {
+                IOUtil.close(process.getInputStream());
+            }
+            process.waitFor();
+        } catch (IOException e) {
+            log.debug("Unable to query the version of " + javaExecutable, e);
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+
+        Matcher matcher = VERSION_PATTERN.matcher(output);
+        if (!matcher.find()) {
+            log.debug("Unable to parse the version of " + javaExecutable + ": " + output);
+            return -1;
+        }
+        int major = Integer.parseInt(matcher.group(1));
+        return major == 1 && matcher.group(2) != null ? Integer.parseInt(matcher.group(2)) : major;
+    }
+
+    /**
+     * @return the length of the command line launching the JVM without an argument file.
+     */
+    int getCommandLineLength() {
+        int length = javaExecutable.length();
+        for (String argument : getArguments()) {
+            length += argument.length() + 1;
+        }
+        return length;
+    }
+
+    /**
+     * Runs the JVM until it exits, the stop pattern is found in its output or the timeout expires. In the last two cases,
+     * the JVM is asked to terminate, which runs its shutdown hooks.
+     *
+     * @param timeout     the timeout in milliseconds, 0 for none.
+     * @param stopPattern the pattern which terminates the JVM when found in an output line, null for none.
+     * @return the exit code of the JVM.
+     */
+    int run(long timeout, Pattern stopPattern) throws IOException, InterruptedException {
+        final Process process = start();
+        OutputPumper outputPumper = new OutputPumper(process, stopPattern);
+        outputPumper.start();
+
+        long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+        try {
+            while (true) {
+                try {
+                    int exitCode = process.exitValue();
+                    outputPumper.join();
+                    return exitCode;
+                } catch (IllegalThreadStateException e) {
+                    // still running
+                }
+
+                if (outputPumper.stopRequested) {
+                    log.info("Stop pattern found, terminating forked JVM");
+                    process.destroy();
+                    outputPumper.stopRequested = false;
+                } else if (System.currentTimeMillis() > deadline) {
+                    log.info("Timeout expired, terminating forked JVM");
+                    process.destroy();
+                    deadline = Long.MAX_VALUE;
+                }
+                Thread.sleep(100);
+            }
+        } catch (InterruptedException e) {
+            process.destroy();
+            throw e;
+        }
+    }
+
+    Process start() throws IOException {
+        List<String> arguments = getArguments();
+        List<String> command = new ArrayList<String>();
+        command.add(javaExecutable);
+        if (argFile != null) {
+            StringBuilder sb = new StringBuilder();
+            for (String argument : arguments) {
+                sb.append('"').append(argument.replace("\\", "\\\\").replace("\"", "\\\"")).append('"').append('\n');
+            }
+            Files.createParentDirs(argFile);
+            Files.write(sb.toString(), argFile, Charsets.UTF_8);
+            command.add("@" + argFile.getAbsolutePath());
+        } else {
+            command.addAll(arguments);
+        }
+
+        log.debug("Forking JVM: " + command);
+        return new ProcessBuilder(command)
+                .directory(workingDirectory)
+                .redirectErrorStream(true)
+                .start();
+    }
+
+    private List<String> getArguments() {
+        List<String> arguments = new ArrayList<String>(jvmArgs);
+        if (!classPath.isEmpty()) {
+            arguments.add("-cp");
+            arguments.add(Joiner.on(File.pathSeparator).join(classPath));
+        }
+        arguments.add(mainClass);
+        arguments.addAll(args);
+        return arguments;
+    }
+
+    private class OutputPumper extends Thread {
+        private final Process process;
+        private final Pattern stopPattern;
+        private volatile boolean stopRequested;
+
+        OutputPumper(Process process, Pattern stopPattern) {
+            super("forked-jvm-output");
+            setDaemon(true);
+            this.process = process;
+            this.stopPattern = stopPattern;
+        }
+
+        @Override
+        public void run() {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (outputStream != null) {
+                        outputStream.println(line);
+                    } else {
+                        log.info(line);
+                    }
+                    if (stopPattern != null && stopPattern.matcher(line).find()) {
+                        stopRequested = true;
+                    }
+                }
+            } catch (IOException e) {
+                log.debug("Unable to read forked JVM output", e);
+            } finally {
+                IOUtil.close(reader);
+            }
+        }
+    }
+}
@@ -10,6 +10,7 @@
 package com.inetpsa.seed.plugin;
 
 import com.inetpsa.seed.plugin.components.ArtifactResolver;
+import com.inetpsa.seed.plugin.components.VersionCache;
 import org.apache.commons.lang.StringUtils;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
@@ -23,6 +24,7 @@ import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.components.interactivity.Prompter;
 import org.codehaus.plexus.components.interactivity.PrompterException;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -76,6 +78,10 @@ public class GenerateMojo extends AbstractMojo {
                 archetypeVersion = mavenSession.getUserProperties().getProperty("archetypeVersion");
 
         boolean allowSnapshots = !mavenSession.getUserProperties().getProperty("allowSnapshots", "false").equals("false");
+        boolean useCache = !mavenSession.getUserProperties().getProperty("useCache", "true").equals("false");
+        boolean offlineVersions = !mavenSession.getUserProperties().getProperty("offlineVersions", "false").equals("false");
+        String cacheDirectory = mavenSession.getUserProperties().getProperty("cacheDirectory");
+        String versionCacheTtl = mavenSession.getUserProperties().getProperty("versionCacheTtl", "86400");
 
         if (StringUtils.isBlank(version)) {
             version = "1.0.0-SNAPSHOT";
@@ -102,8 +108,21 @@ public class GenerateMojo extends AbstractMojo {
         }
 
         if (StringUtils.isBlank(archetypeVersion)) {
+            VersionCache versionCache = null;
+            if (useCache) {
+                try {
+                    versionCache = new VersionCache(
+                            StringUtils.isBlank(cacheDirectory) ? new File(mavenSession.getLocalRepository().getBasedir(), ".cache/seedstack-maven-plugin") : new File(cacheDirectory),
+                            Long.parseLong(versionCacheTtl),
+                            offlineVersions
+                    );
+                } catch (NumberFormatException e) {
+                    throw new MojoExecutionException("Invalid versionCacheTtl value " + versionCacheTtl, e);
+                }
+            }
+
             try {
-                archetypeVersion = artifactResolver.getHighestVersion(mavenProject, archetypeGroupId, archetypeArtifactId, allowSnapshots);
+                archetypeVersion = artifactResolver.getHighestVersion(mavenProject, archetypeGroupId, archetypeArtifactId, allowSnapshots, versionCache);
             } catch (Exception e) {
                 throw new MojoExecutionException("Unable to determine latest version of archetype, please specify it manually through the archetypeVersion property", e);
             }
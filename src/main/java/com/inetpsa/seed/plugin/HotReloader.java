@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin;
+
+import com.inetpsa.seed.plugin.runtime.OverlayClassLoader;
+import com.inetpsa.seed.plugin.runtime.SeedKernel;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the Seed kernel of a project and restarts it each time the project resources or classes change. The project
+ * dependencies are loaded once by a stable parent class loader, while the project resources and classes are loaded by a
+ * child class loader which is thrown away on each restart, so only the project classes are loaded again.
+ * <p>
+ * Changes are detected by polling the modification time and size of the files of the watched directories. A restart
+ * happens once a scan finds no further change, so a compilation writing many files causes a single restart. A kernel
+ * failing to start is reported and restarted on the next change.
+ */
+class HotReloader {
+    private final ClassLoader parentClassLoader;
+    private final List<URL> projectUrls;
+    private final List<File> watchedDirectories;
+    private final long interval;
+    private final Log log;
+
+    /**
+     * Creates a hot reloader.
+     *
+     * @param parentClassLoader  the class loader of the project dependencies.
+     * @param projectUrls        the URLs of the project resources and classes.
+     * @param watchedDirectories the directories to watch for changes.
+     * @param interval           the polling interval in milliseconds.
+     * @param log                the log to report restarts to.
+     */
+    HotReloader(ClassLoader parentClassLoader, List<URL> projectUrls, List<File> watchedDirectories, long interval, Log log) {
+        this.parentClassLoader = parentClassLoader;
+        this.projectUrls = projectUrls;
+        this.watchedDirectories = watchedDirectories;
+        this.interval = interval;
+        this.log = log;
+    }
+
+    /**
+     * Starts the kernel and restarts it on changes, until the current thread is interrupted.
+     */
+    void run() throws Exception {
+        Map<String, String> snapshot = scan();
+        Object kernel = startKernel();
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(interval);
+                Map<String, String> currentSnapshot = scan();
+                if (currentSnapshot.equals(snapshot)) {
+                    continue;
+                }
+
+                // Wait for the changes to settle
+                do {
+                    snapshot = currentSnapshot;
+                    Thread.sleep(interval);
+                    currentSnapshot = scan();
+                } while (!currentSnapshot.equals(snapshot));
+
+                log.info("Changes detected, restarting the application");
+                stopKernel(kernel);
+                kernel = startKernel();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopKernel(kernel);
+        }
+    }
+
+    private Object startKernel() {
+        long startTime = System.currentTimeMillis();
+        try {
+            Object kernel = SeedKernel.start(new OverlayClassLoader(projectUrls, null, parentClassLoader));
+            log.info(String.format("Application started in %d ms, watching for changes", System.currentTimeMillis() - startTime));
+            return kernel;
+        } catch (Exception e) {
+            log.error("Unable to start the application, waiting for changes", e);
+        }
+
+        return null;
+    }
+
+    private void stopKernel(Object kernel) {
+        if (kernel == null) {
+            return;
+        }
+
+        try {
+            SeedKernel.stop(kernel);
+        } catch (Exception e) {
+            log.warn("Unable to stop the application properly", e);
+        }
+    }
+
+    private Map<String, String> scan() {
+        Map<String, String> snapshot = new HashMap<String, String>();
+        for (File directory : watchedDirectories) {
+            scan(directory, snapshot);
+        }
+        return snapshot;
+    }
+
+    private void scan(File file, Map<String, String> snapshot) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                scan(child, snapshot);
+            }
+        } else if (file.isFile()) {
+            snapshot.put(file.getAbsolutePath(), file.length() + ":" + file.lastModified());
+        }
+    }
+}
@@ -9,10 +9,27 @@
  */
 package com.inetpsa.seed.plugin;
 
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.inetpsa.seed.plugin.archive.ArchiveDelta;
+import com.inetpsa.seed.plugin.archive.ArchiveEntry;
+import com.inetpsa.seed.plugin.archive.ArchiveMerger;
+import com.inetpsa.seed.plugin.archive.ArchiveReader;
+import com.inetpsa.seed.plugin.archive.ArchiveWriter;
+import com.inetpsa.seed.plugin.archive.ClassPathIndex;
+import com.inetpsa.seed.plugin.archive.ClassReachability;
+import com.inetpsa.seed.plugin.archive.ParallelArchiver;
 import com.inetpsa.seed.plugin.components.ArtifactResolver;
+import com.inetpsa.seed.plugin.components.ReactorCache;
+import com.inetpsa.seed.plugin.components.VersionCache;
+import com.inetpsa.seed.plugin.runtime.DependencyLock;
+import com.inetpsa.seed.plugin.runtime.LockedLauncher;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.execution.MavenSession;
-import org.apache.maven.model.Dependency;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.BuildPluginManager;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -22,46 +39,34 @@ import org.apache.maven.plugins.annotations.Execute;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.DefaultMavenProjectHelper;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
-import org.codehaus.plexus.util.IOUtil;
-import org.eclipse.aether.artifact.Artifact;
-import org.eclipse.aether.graph.DependencyFilter;
-import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.artifact.DefaultArtifact;
 import org.eclipse.aether.repository.RemoteRepository;
-import org.eclipse.aether.resolution.ArtifactResolutionException;
 import org.eclipse.aether.resolution.ArtifactResult;
-import org.eclipse.aether.resolution.DependencyResolutionException;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.security.CodeSource;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.JarInputStream;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipException;
 
 /**
  * Defines the package goal. This goal packages a SeedStack project as a capsule.
  *
  * @author adrien.lauer@gmail.com
  */
-@Mojo(name = "package", requiresProject = true, threadSafe = true, defaultPhase = LifecyclePhase.PACKAGE)
+@Mojo(name = "package", requiresProject = true, threadSafe = true, defaultPhase = LifecyclePhase.PACKAGE, requiresDependencyResolution = ResolutionScope.RUNTIME)
 @Execute(phase = LifecyclePhase.PACKAGE)
 public class PackageMojo extends AbstractMojo {
     public static final String CAPSULE_GROUP_ID = "co.paralleluniverse";
@@ -73,6 +78,15 @@ public class PackageMojo extends AbstractMojo {
     public static final String APPLICATION_CLASS = "Application-Class";
     public static final String APPLICATION_NAME = "Application-Name";
     public static final String ALLOW_SNAPSHOTS = "Allow-Snapshots";
+    public static final String EXTRACT_CAPSULE = "Extract-Capsule";
+    public static final String CLASS_PATH_INDEX = "SeedStack-Class-Path-Index";
+    public static final String CAPSULE_IN_CLASS_PATH = "Capsule-In-Class-Path";
+    public static final String JVM_ARGS = "JVM-Args";
+    public static final String MIN_JAVA_VERSION = "Min-Java-Version";
+    public static final String CDS_ARCHIVE_NAME = "app.jsa";
+    public static final String CDS_MIN_JAVA_VERSION = "19";
+    // SeedStack and Nuun discover their classes by classpath scanning
+    private static final List<String> DEFAULT_KEEP_RULES = Arrays.asList("org.seedstack.**", "io.nuun.**");
 
     @Parameter(defaultValue = "${project}", required = true, readonly = true)
     private MavenProject mavenProject;
@@ -104,24 +118,125 @@ public class PackageMojo extends AbstractMojo {
     @Parameter(property = "allowSnapshots")
     private String allowSnapshots;
 
+    @Parameter(property = "flatten")
+    private String flatten;
+
+    @Parameter(property = "duplicateStrategy", defaultValue = "first")
+    private ArchiveMerger.DuplicateStrategy duplicateStrategy;
+
+    @Parameter
+    private List<String> mergedResources;
+
+    // Opt-in: the index is only useful to a launcher reading it, which the Capsule runtime does not
+    @Parameter(property = "classPathIndex", defaultValue = "false")
+    private boolean classPathIndex;
+
+    @Parameter(property = "lockDependencies", defaultValue = "false")
+    private boolean lockDependencies;
+
+    @Parameter(property = "minimize", defaultValue = "false")
+    private boolean minimize;
+
+    @Parameter
+    private List<String> minimizeKeep;
+
+    // Standalone only, the Capsule then requires Java 19+. The archive is recorded by the first launch on each
+    // machine, so every fresh instance (a new container, an autoscaled node) still starts once without it
+    @Parameter(property = "cds")
+    private String cds;
+
+    @Parameter(property = "packagingReport", defaultValue = "true")
+    private boolean packagingReport;
+
+    @Parameter(property = "previousCapsule")
+    private File previousCapsule;
+
+    @Parameter(property = "packagingThreads")
+    private Integer packagingThreads;
+
+    @Parameter(property = "storeNestedJars", defaultValue = "false")
+    private boolean storeNestedJars;
+
+    @Parameter(property = "incremental", defaultValue = "true")
+    private boolean incremental;
+
+    @Parameter(property = "useCache", defaultValue = "true")
+    private boolean useCache;
+
+    @Parameter(property = "cacheDirectory", defaultValue = "${settings.localRepository}/.cache/seedstack-maven-plugin")
+    private File cacheDirectory;
+
+    @Parameter(property = "versionCacheTtl", defaultValue = "86400")
+    private long versionCacheTtl;
+
+    @Parameter(property = "offlineVersions", defaultValue = "false")
+    private boolean offlineVersions;
+
     @Component
     private BuildPluginManager buildPluginManager;
 
     @Component
     private ArtifactResolver artifactResolver;
 
+    private final PackagingReport report = new PackagingReport();
+
+    /**
+     * The Capsule artifacts to add to capsules, as cached payloads or as resolved jars.
+     */
+    private static class CapsuleRuntime {
+        private final Map<String, File> payloads = new HashMap<String, File>();
+        private final Map<String, File> jarFiles = new HashMap<String, File>();
+    }
+
     enum Type {
         light,
-        standalone
+        standalone,
+        flat
     }
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
+        report.attribute("project", mavenProject.getId());
+        try {
+            doExecute();
+            report.attribute("outcome", "success");
+        } catch (MojoExecutionException e) {
+            report.attribute("outcome", "failure");
+            throw e;
+        } catch (MojoFailureException e) {
+            report.attribute("outcome", "failure");
+            throw e;
+        } finally {
+            ReactorCache reactorCache = getReactorCache();
+            report.attribute("reactorCacheHits", reactorCache.getHitCount()).attribute("reactorCacheMisses", reactorCache.getMissCount());
+            writeReport();
+        }
+    }
+
+    private void doExecute() throws MojoExecutionException, MojoFailureException {
         MavenProjectHelper helper = new DefaultMavenProjectHelper();
 
+        if (cds != null && (flatten != null || standalone == null)) {
+            throw new MojoFailureException("Class data sharing (cds) is only supported by standalone capsules");
+        }
+
         if (capsuleVersion == null) {
-            capsuleVersion = artifactResolver.getHighestVersion(mavenProject, CAPSULE_GROUP_ID, CAPSULE_ARTIFACT_ID, false);
+            PackagingReport.Phase phase = report.start("version-lookup");
+            final VersionCache versionCache = useCache ? new VersionCache(cacheDirectory, versionCacheTtl, offlineVersions) : null;
+            try {
+                // Modules of the reactor usually share their repositories, the lookup is done once for all of them
+                capsuleVersion = getReactorCache().get("version:" + CAPSULE_GROUP_ID + ":" + CAPSULE_ARTIFACT_ID + mavenProject.getRemoteProjectRepositories(), new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return artifactResolver.getHighestVersion(mavenProject, CAPSULE_GROUP_ID, CAPSULE_ARTIFACT_ID, false, versionCache);
+                    }
+                });
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to find Capsule version", e);
+            }
+            phase.end();
         }
+        report.attribute("capsuleVersion", capsuleVersion);
 
         if (!outputDirectory.exists()) {
             boolean success = outputDirectory.mkdirs();
@@ -131,7 +246,13 @@ public class PackageMojo extends AbstractMojo {
         getLog().info("Packaging SeedStack application using Capsule version " + capsuleVersion);
 
         File capsuleFile;
-        if (standalone != null) {
+        if (flatten != null) {
+            try {
+                capsuleFile = buildFlat();
+            } catch (Exception e) {
+                throw new MojoExecutionException("Unable to build flat Capsule", e);
+            }
+        } else if (standalone != null) {
             try {
                 capsuleFile = buildStandalone();
             } catch (Exception e) {
@@ -146,102 +267,619 @@ public class PackageMojo extends AbstractMojo {
         }
 
         helper.attachArtifact(mavenProject, capsuleFile, "capsule");
+        report.attribute("capsule", capsuleFile.getName()).attribute("capsuleSize", capsuleFile.length());
+
+        if (previousCapsule != null) {
+            try {
+                helper.attachArtifact(mavenProject, "delta", "capsule", buildDelta(capsuleFile));
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to compute Capsule delta from " + previousCapsule.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    private File buildDelta(File capsuleFile) throws IOException, MojoFailureException {
+        if (!previousCapsule.isFile()) {
+            throw new MojoFailureException("Previous Capsule " + previousCapsule.getAbsolutePath() + " does not exist");
+        }
+
+        PackagingReport.Phase phase = report.start("delta").read(previousCapsule.length() + capsuleFile.length());
+        File deltaFile = new File(outputDirectory, String.format("%s-capsule.delta", finalName));
+        long copiedBytes = ArchiveDelta.compute(previousCapsule, capsuleFile, deltaFile);
+        phase.written(deltaFile.length()).end();
+        getLog().info(String.format("Capsule delta written to %s (%d bytes, %d of %d bytes reused from previous Capsule)",
+                deltaFile.getName(), deltaFile.length(), copiedBytes, capsuleFile.length()));
+        return deltaFile;
+    }
+
+    private void writeReport() {
+        if (packagingReport) {
+            report.log(getLog());
+            File reportFile = new File(outputDirectory, "seedstack-package-report.json");
+            try {
+                report.write(reportFile);
+                getLog().debug("Packaging report written to " + reportFile.getAbsolutePath());
+            } catch (IOException e) {
+                getLog().warn("Unable to write packaging report " + reportFile.getAbsolutePath(), e);
+            }
+        }
     }
 
-    public File buildLight() throws IOException, ArtifactResolutionException, DependencyResolutionException {
+    public File buildLight() throws IOException, MojoExecutionException {
         File jarFile = new File(this.outputDirectory, getOutputName());
-        JarOutputStream jarStream = new JarOutputStream(new FileOutputStream(jarFile));
+        File mainJarFile = new File(outputDirectory, finalName + ".jar");
+        report.attribute("type", Type.light);
+
+        PackagingReport.Phase phase = report.start("dependency-graph");
+        Map<String, String> additionalAttributes = new HashMap<String, String>();
+        byte[] dependencyLock = null;
+        if (lockDependencies) {
+            // Artifacts are fetched as locked by the launcher instead of being resolved by MavenCapsule
+            dependencyLock = createDependencyLock(phase);
+            additionalAttributes.put(LockedLauncher.LOCK_ATTRIBUTE, DependencyLock.ENTRY_NAME);
+            additionalAttributes.put(LockedLauncher.APPLICATION_JAR_ATTRIBUTE, mainJarFile.getName());
+        } else {
+            additionalAttributes.put("Dependencies", getDependencyString());
+            additionalAttributes.put("Repositories", getRepoString());
+        }
+        phase.end();
+        byte[] manifest = createManifest(additionalAttributes, Type.light);
+
+        phase = report.start("fingerprint");
+        CapsuleFingerprint capsuleFingerprint = createFingerprint(manifest).putFile(mainJarFile);
+        if (dependencyLock != null) {
+            capsuleFingerprint.putBytes(dependencyLock);
+        }
+        String fingerprint = capsuleFingerprint.getValue();
+        boolean upToDate = isUpToDate(jarFile, fingerprint);
+        phase.end();
+        if (upToDate) {
+            return jarFile;
+        }
+
+        ArchiveWriter writer = new ArchiveWriter(jarFile);
+        try {
+            // Manifest
+            writeManifest(writer, mainJarFile, manifest);
+
+            // Main JAR
+            phase = report.start("main-jar").writingTo(writer).read(mainJarFile.length());
+            writer.write(createNestedJarEntry(mainJarFile));
+            phase.end();
+
+            if (dependencyLock != null) {
+                // Dependency lock and launcher
+                phase = report.start("launcher").writingTo(writer);
+                writer.write(ArchiveEntry.deflate(DependencyLock.ENTRY_NAME, mainJarFile.lastModified(), dependencyLock));
+                addLockedLauncher(writer);
+                phase.end();
+            } else {
+                // Capsule classes
+                addCapsuleRuntime(writer, CAPSULE_ARTIFACT_ID, MAVEN_CAPLET_ARTIFACT_ID);
+            }
+        } finally {
+            writer.close();
+        }
+
+        CapsuleFingerprint.record(jarFile, fingerprint);
+        return jarFile;
+    }
 
-        // Manifest
+    public File buildStandalone() throws IOException, MojoExecutionException {
+        File jarFile = new File(outputDirectory, getOutputName());
+        File mainJarFile = new File(outputDirectory, finalName + ".jar");
+        report.attribute("type", Type.standalone);
         Map<String, String> additionalAttributes = new HashMap<String, String>();
-        additionalAttributes.put("Dependencies", getDependencyString());
-        additionalAttributes.put("Repositories", getRepoString());
-        addManifest(jarStream, additionalAttributes, Type.light);
+        if (classPathIndex) {
+            additionalAttributes.put(CLASS_PATH_INDEX, ClassPathIndex.ENTRY_NAME);
+        }
+        if (cds != null) {
+            // The archive is recorded by the first launch against the extracted jars, since an archive recorded at
+            // build time would not match their paths and modification times. It is recorded again when they change.
+            // AutoCreateSharedArchive requires Java 19+, older JVMs refuse to start with it so Capsule must select one
+            getLog().warn("Class data sharing requires Java 19+ to run the Capsule, the archive is recorded by its first launch on each machine");
+            additionalAttributes.put(CAPSULE_IN_CLASS_PATH, "false");
+            additionalAttributes.put(MIN_JAVA_VERSION, CDS_MIN_JAVA_VERSION);
+            additionalAttributes.put(JVM_ARGS, "-XX:+AutoCreateSharedArchive -XX:SharedArchiveFile=$CAPSULE_DIR/" + CDS_ARCHIVE_NAME);
+        }
+        byte[] manifest = createManifest(additionalAttributes, Type.standalone);
+
+        List<Artifact> artifacts = getStandaloneArtifacts();
+
+        PackagingReport.Phase phase = report.start("fingerprint");
+        CapsuleFingerprint capsuleFingerprint = createFingerprint(manifest)
+                .putString(minimize ? String.valueOf(getKeepRules()) : "")
+                .putFile(mainJarFile);
+        for (Artifact artifact : artifacts) {
+            capsuleFingerprint.putFile(artifact.getFile());
+        }
+
+        String fingerprint = capsuleFingerprint.getValue();
+        boolean upToDate = isUpToDate(jarFile, fingerprint);
+        phase.end();
+        if (upToDate) {
+            return jarFile;
+        }
+
+        List<File> dependencyFiles = new ArrayList<File>();
+        if (minimize) {
+            dependencyFiles.addAll(minimizeDependencies(mainJarFile, artifacts));
+        } else {
+            for (Artifact artifact : artifacts) {
+                dependencyFiles.add(artifact.getFile());
+            }
+        }
+
+        ArchiveWriter writer = new ArchiveWriter(jarFile);
+        try {
+            // Manifest
+            writeManifest(writer, mainJarFile, manifest);
+
+            // Main JAR and dependencies are prepared concurrently but written in a fixed order
+            phase = report.start("nested-jars").writingTo(writer);
+            ParallelArchiver parallelArchiver = new ParallelArchiver(writer, getPackagingThreads());
+            try {
+                parallelArchiver.add(nestedJarTask(mainJarFile, "main-jar", false));
+                for (int i = 0; i < artifacts.size(); i++) {
+                    getLog().debug("Adding " + artifacts.get(i));
+                    parallelArchiver.add(nestedJarTask(dependencyFiles.get(i), "dependency:" + artifacts.get(i).getId(), true));
+                }
+            } finally {
+                parallelArchiver.finish();
+            }
+            phase.end();
+
+            // Class path index
+            if (classPathIndex) {
+                phase = report.start("class-path-index").writingTo(writer);
+                addClassPathIndex(writer, mainJarFile, dependencyFiles);
+                phase.end();
+            }
 
-        // Main JAR
+            // Capsule classes
+            addCapsuleRuntime(writer, CAPSULE_ARTIFACT_ID);
+        } finally {
+            writer.close();
+        }
+
+        CapsuleFingerprint.record(jarFile, fingerprint);
+        return jarFile;
+    }
+
+    public File buildFlat() throws IOException, MojoExecutionException {
+        File jarFile = new File(outputDirectory, getOutputName());
         File mainJarFile = new File(outputDirectory, finalName + ".jar");
-        addToJar(mainJarFile.getName(), new FileInputStream(mainJarFile), jarStream);
+        Map<String, String> additionalAttributes = new HashMap<String, String>();
+        additionalAttributes.put(EXTRACT_CAPSULE, "false");
+        byte[] manifest = createManifest(additionalAttributes, Type.flat);
+        report.attribute("type", Type.flat);
+
+        List<Artifact> artifacts = getStandaloneArtifacts();
+
+        PackagingReport.Phase phase = report.start("fingerprint");
+        CapsuleFingerprint capsuleFingerprint = createFingerprint(manifest)
+                .putString(duplicateStrategy.name())
+                .putString(String.valueOf(getMergedResources()))
+                .putFile(mainJarFile);
+        for (Artifact artifact : artifacts) {
+            capsuleFingerprint.putFile(artifact.getFile());
+        }
+
+        String fingerprint = capsuleFingerprint.getValue();
+        boolean upToDate = isUpToDate(jarFile, fingerprint);
+        phase.end();
+        if (upToDate) {
+            return jarFile;
+        }
+
+        ArchiveWriter writer = new ArchiveWriter(jarFile);
+        try {
+            // Manifest
+            writeManifest(writer, mainJarFile, manifest);
+
+            // Main JAR and dependencies are unpacked in classpath order
+            ArchiveMerger archiveMerger = new ArchiveMerger(duplicateStrategy, getMergedResources());
+            phase = report.start("main-jar").read(mainJarFile.length());
+            phase.entries(archiveMerger.add(mainJarFile)).end();
+            for (Artifact artifact : artifacts) {
+                getLog().debug("Flattening " + artifact);
+                phase = report.start("dependency:" + artifact.getId()).read(artifact.getFile().length());
+                phase.entries(archiveMerger.add(artifact.getFile())).end();
+            }
 
-        // Capsule classes
-        addCapsuleClasses(jarStream);
-        addMavenCapletClasses(jarStream);
+            phase = report.start("merge").writingTo(writer);
+            archiveMerger.writeTo(writer);
+            phase.end();
 
-        IOUtil.close(jarStream);
+            for (String conflict : archiveMerger.getConflicts()) {
+                getLog().warn("Duplicate entry " + conflict + ", keeping the " + duplicateStrategy + " one");
+            }
+
+            // Capsule classes
+            addCapsuleRuntime(writer, CAPSULE_ARTIFACT_ID);
+        } finally {
+            writer.close();
+        }
 
+        if (writer.getEntryCount() >= 0xFFFF || jarFile.length() >= 0xFFFFFFFFL) {
+            getLog().warn(String.format("Flat Capsule has %d entries (%d bytes) and uses the ZIP64 format, it requires Java 7+ to run", writer.getEntryCount(), jarFile.length()));
+        }
+
+        CapsuleFingerprint.record(jarFile, fingerprint);
         return jarFile;
     }
 
-    public File buildStandalone() throws IOException, MojoExecutionException, ArtifactResolutionException, DependencyResolutionException {
-        DependencyFilter dependencyFilter = new DependencyFilter() {
+    private void addClassPathIndex(ArchiveWriter writer, File mainJarFile, List<File> dependencyFiles) throws IOException {
+        ClassPathIndex index = new ClassPathIndex();
+        index.addJar(mainJarFile.getName(), getEntryNames(mainJarFile));
+        for (File dependencyFile : dependencyFiles) {
+            index.addJar(dependencyFile.getName(), getEntryNames(dependencyFile));
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        index.write(outputStream);
+        writer.write(ArchiveEntry.deflate(ClassPathIndex.ENTRY_NAME, mainJarFile.lastModified(), outputStream.toByteArray()));
+    }
+
+    private List<File> minimizeDependencies(File mainJarFile, List<Artifact> artifacts) throws IOException {
+        PackagingReport.Phase phase = report.start("minimization").read(mainJarFile.length());
+        ClassReachability classReachability = new ClassReachability(getKeepRules());
+        classReachability.addRoot(mainClass);
+        // Application classes are scanned at runtime, so they are all kept
+        classReachability.addArchive(mainJarFile, true);
+        for (Artifact artifact : artifacts) {
+            classReachability.addArchive(artifact.getFile(), false);
+            phase.read(artifact.getFile().length());
+        }
+        int reachableCount = classReachability.compute();
+
+        File minimizedDirectory = new File(outputDirectory, "minimized");
+        if (!minimizedDirectory.isDirectory() && !minimizedDirectory.mkdirs()) {
+            throw new IOException("Unable to create directory " + minimizedDirectory.getAbsolutePath());
+        }
+
+        List<File> minimizedFiles = new ArrayList<File>();
+        Predicate<String> entryFilter = classReachability.getEntryFilter();
+        for (Artifact artifact : artifacts) {
+            File file = artifact.getFile();
+            if (isSigned(file)) {
+                // Removing classes would invalidate the signature
+                getLog().debug("Not minimizing signed artifact " + artifact);
+                minimizedFiles.add(file);
+                continue;
+            }
+
+            File minimizedFile = new File(minimizedDirectory, file.getName());
+            ArchiveWriter writer = new ArchiveWriter(minimizedFile);
+            try {
+                for (ArchiveEntry entry : ArchiveReader.readEntries(file, entryFilter)) {
+                    writer.write(entry);
+                }
+            } finally {
+                writer.close();
+            }
+            // The nested entry takes the time of the file, which must not change from one build to another
+            minimizedFile.setLastModified(file.lastModified());
+            phase.written(minimizedFile.length());
+            minimizedFiles.add(minimizedFile);
+        }
+
+        getLog().info(String.format("Minimization kept %d of %d classes", reachableCount, classReachability.getClassCount()));
+        phase.entries(reachableCount).end();
+        return minimizedFiles;
+    }
+
+    private boolean isSigned(File jarFile) throws IOException {
+        return !ArchiveReader.readEntries(jarFile, new Predicate<String>() {
             @Override
-            public boolean accept(DependencyNode node, List<DependencyNode> parents) {
-                return "jar".equals(node.getArtifact().getExtension());
+            public boolean apply(String name) {
+                String upperCaseName = name.toUpperCase();
+                return upperCaseName.startsWith("META-INF/") && upperCaseName.indexOf('/', "META-INF/".length()) == -1 && upperCaseName.endsWith(".SF");
             }
-        };
-        File jarFile = new File(outputDirectory, getOutputName());
-        JarOutputStream jarStream = new JarOutputStream(new FileOutputStream(jarFile));
+        }).isEmpty();
+    }
 
-        // Manifest
-        addManifest(jarStream, null, Type.standalone);
+    private List<String> getKeepRules() {
+        List<String> keepRules = new ArrayList<String>(DEFAULT_KEEP_RULES);
+        if (minimizeKeep != null) {
+            keepRules.addAll(minimizeKeep);
+        }
+        return keepRules;
+    }
 
-        // Main JAR
-        File mainJarFile = new File(outputDirectory, finalName + ".jar");
-        addToJar(mainJarFile.getName(), new FileInputStream(mainJarFile), jarStream);
+    private List<String> getEntryNames(File jarFile) throws IOException {
+        List<String> entryNames = new ArrayList<String>();
+        for (ArchiveEntry entry : ArchiveReader.readEntries(jarFile, Predicates.<String>alwaysTrue())) {
+            entryNames.add(entry.getName());
+        }
+        return entryNames;
+    }
 
-        // Dependencies
-        for (Artifact artifact : getProjectArtifacts(dependencyFilter)) {
-            getLog().debug("Adding " + artifact);
-            if (artifact.getFile() == null) {
+    private List<Artifact> getStandaloneArtifacts() throws MojoExecutionException {
+        PackagingReport.Phase phase = report.start("dependency-graph");
+        List<Artifact> artifacts = getProjectArtifacts(new Predicate<Artifact>() {
+            @Override
+            public boolean apply(Artifact artifact) {
+                return "jar".equals(artifact.getArtifactHandler().getExtension());
+            }
+        });
+
+        for (Artifact artifact : artifacts) {
+            if (artifact.getFile() == null || !artifact.getFile().isFile()) {
                 throw new MojoExecutionException("Unable to find artifact " + artifact);
-            } else {
-                addToJar(artifact.getFile().getName(), new FileInputStream(artifact.getFile()), jarStream);
             }
         }
 
-        // Capsule classes
-        addCapsuleClasses(jarStream);
+        phase.entries(artifacts.size()).end();
+        return artifacts;
+    }
+
+    private List<String> getMergedResources() {
+        if (mergedResources == null) {
+            List<String> defaultMergedResources = new ArrayList<String>();
+            defaultMergedResources.add("META-INF/configuration/");
+            return defaultMergedResources;
+        }
+        return mergedResources;
+    }
 
-        IOUtil.close(jarStream);
+    private CapsuleFingerprint createFingerprint(byte[] manifest) {
+        CapsuleFingerprint capsuleFingerprint = new CapsuleFingerprint()
+                .putBytes(manifest)
+                .putString(capsuleVersion)
+                .putString(String.valueOf(storeNestedJars));
 
-        return jarFile;
+        // The plugin itself is an input, a new version may package differently
+        File pluginFile = getPluginFile();
+        if (pluginFile != null) {
+            capsuleFingerprint.putFile(pluginFile);
+        }
+
+        return capsuleFingerprint;
+    }
+
+    private File getPluginFile() {
+        CodeSource src = PackageMojo.class.getProtectionDomain().getCodeSource();
+        return src != null ? FileUtils.toFile(src.getLocation()) : null;
+    }
+
+    private byte[] createDependencyLock(PackagingReport.Phase phase) throws IOException, MojoExecutionException {
+        DependencyLock dependencyLock = new DependencyLock();
+        for (RemoteRepository repository : remoteRepositories) {
+            dependencyLock.addRepository(repository.getId(), repository.getUrl());
+        }
+
+        for (Artifact artifact : getStandaloneArtifacts()) {
+            if (artifact.isSnapshot() && artifact.getVersion().equals(artifact.getBaseVersion())) {
+                getLog().warn("Locking " + artifact + " which was not resolved from a remote repository, it may not be found at runtime");
+            }
+
+            File file = artifact.getFile();
+            String path = String.format("%s/%s/%s/%s-%s%s.%s",
+                    artifact.getGroupId().replace('.', '/'),
+                    artifact.getArtifactId(),
+                    artifact.getBaseVersion(),
+                    artifact.getArtifactId(),
+                    artifact.getVersion(),
+                    Strings.isNullOrEmpty(artifact.getClassifier()) ? "" : "-" + artifact.getClassifier(),
+                    artifact.getArtifactHandler().getExtension());
+            String[] digests = getDigests(file, phase);
+            dependencyLock.addArtifact(artifact.getId(), path, file.length(), digests[0], digests[1]);
+            phase.entries(1);
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        dependencyLock.write(outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private String[] getDigests(final File file, final PackagingReport.Phase phase) throws IOException {
+        return getReactorCache().get("digests:" + getFileKey(file), new Callable<String[]>() {
+            @Override
+            public String[] call() throws Exception {
+                phase.read(2 * file.length());
+                return new String[]{Files.hash(file, Hashing.sha1()).toString(), Files.hash(file, Hashing.sha256()).toString()};
+            }
+        });
+    }
+
+    private void addLockedLauncher(ArchiveWriter writer) throws IOException, MojoExecutionException {
+        final String prefix = LockedLauncher.class.getPackage().getName().replace('.', '/') + "/";
+        // Only the launcher and the lock format, with their nested classes, are needed before the application starts
+        final Predicate<String> launcherClass = new Predicate<String>() {
+            @Override
+            public boolean apply(String name) {
+                return (name.startsWith(LockedLauncher.class.getSimpleName()) || name.startsWith(DependencyLock.class.getSimpleName())) && name.endsWith(".class");
+            }
+        };
+        File pluginFile = getPluginFile();
+        if (pluginFile == null) {
+            throw new MojoExecutionException("Unable to locate the plugin classes");
+        }
+
+        if (pluginFile.isFile()) {
+            for (ArchiveEntry entry : ArchiveReader.readEntries(pluginFile, new Predicate<String>() {
+                @Override
+                public boolean apply(String name) {
+                    return name.startsWith(prefix) && name.indexOf('/', prefix.length()) < 0 && launcherClass.apply(name.substring(prefix.length()));
+                }
+            })) {
+                writer.write(entry);
+            }
+        } else {
+            File[] classFiles = new File(pluginFile, prefix).listFiles();
+            if (classFiles != null) {
+                Arrays.sort(classFiles);
+                for (File classFile : classFiles) {
+                    if (launcherClass.apply(classFile.getName())) {
+                        writer.write(ArchiveEntry.deflate(prefix + classFile.getName(), classFile));
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isUpToDate(File jarFile, String fingerprint) throws IOException {
+        if (incremental && CapsuleFingerprint.isUpToDate(jarFile, fingerprint)) {
+            getLog().info("Capsule " + jarFile.getName() + " is up to date, skipping packaging");
+            return true;
+        }
+
+        CapsuleFingerprint.invalidate(jarFile);
+        return false;
     }
 
     private String getOutputName() {
         return String.format("%s-capsule.jar", finalName);
     }
 
-    private void addCapsuleClasses(JarOutputStream jarOutputStream) throws IOException, ArtifactResolutionException {
-        ArtifactResult capsule = artifactResolver.resolveArtifact(mavenProject, CAPSULE_GROUP_ID, CAPSULE_ARTIFACT_ID, null, null, capsuleVersion);
-        JarInputStream capsuleJarInputStream = new JarInputStream(new FileInputStream(capsule.getArtifact().getFile()));
+    private int getPackagingThreads() throws MojoExecutionException {
+        if (packagingThreads == null) {
+            return Runtime.getRuntime().availableProcessors();
+        } else if (packagingThreads < 1) {
+            throw new MojoExecutionException("The packagingThreads parameter must be at least 1");
+        } else {
+            return packagingThreads;
+        }
+    }
 
-        JarEntry entry;
-        while ((entry = capsuleJarInputStream.getNextJarEntry()) != null) {
-            if (entry.getName().startsWith("capsule") || entry.getName().equals(CAPSULE_CLASS)) {
-                addToJar(entry.getName(), new ByteArrayInputStream(IOUtil.toByteArray(capsuleJarInputStream)), jarOutputStream);
+    private Callable<ArchiveEntry> nestedJarTask(final File file, final String phaseName, final boolean shared) {
+        return new Callable<ArchiveEntry>() {
+            @Override
+            public ArchiveEntry call() throws Exception {
+                final PackagingReport.Phase phase = report.start(phaseName);
+                Callable<ArchiveEntry> loader = new Callable<ArchiveEntry>() {
+                    @Override
+                    public ArchiveEntry call() throws Exception {
+                        phase.read(file.length());
+                        return createNestedJarEntry(file);
+                    }
+                };
+
+                // Dependencies are often nested in the capsules of several modules, they are compressed only once
+                ArchiveEntry entry = shared ? getReactorCache().getSoftly("nested-jar:" + storeNestedJars + ":" + getFileKey(file), loader) : loader.call();
+                phase.written(entry.getCompressedSize()).entries(1).end();
+                return entry;
             }
+        };
+    }
+
+    private ReactorCache getReactorCache() {
+        return ReactorCache.get(mavenSession.getRepositorySession());
+    }
+
+    private String getFileKey(File file) {
+        return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    }
+
+    private void writeManifest(ArchiveWriter writer, File mainJarFile, byte[] manifest) throws IOException {
+        PackagingReport.Phase phase = report.start("manifest").writingTo(writer);
+        writer.write(ArchiveEntry.deflate(JarFile.MANIFEST_NAME, mainJarFile.lastModified(), manifest));
+        phase.end();
+    }
+
+    private ArchiveEntry createNestedJarEntry(File file) throws IOException {
+        if (storeNestedJars) {
+            // Jars are already compressed, storing them avoids recompression and inflation at startup
+            return ArchiveEntry.store(file.getName(), file);
+        } else {
+            return ArchiveEntry.deflate(file.getName(), file);
         }
     }
 
-    private void addMavenCapletClasses(JarOutputStream jarOutputStream) throws IOException, ArtifactResolutionException {
-        ArtifactResult capsule = artifactResolver.resolveArtifact(mavenProject, CAPSULE_GROUP_ID, MAVEN_CAPLET_ARTIFACT_ID, null, null, capsuleVersion);
-        JarInputStream capsuleJarInputStream = new JarInputStream(new FileInputStream(capsule.getArtifact().getFile()));
+    private void addCapsuleRuntime(ArchiveWriter writer, final String... artifactIds) throws IOException, MojoExecutionException {
+        // Modules of the reactor share the same runtime, it is resolved and prepared once for all of them
+        CapsuleRuntime capsuleRuntime = getReactorCache().get("capsule-runtime:" + capsuleVersion + ":" + Arrays.toString(artifactIds) + mavenProject.getRemoteProjectRepositories(), new Callable<CapsuleRuntime>() {
+            @Override
+            public CapsuleRuntime call() throws Exception {
+                return prepareCapsuleRuntime(artifactIds);
+            }
+        });
+
+        PackagingReport.Phase phase = report.start("capsule-extraction").writingTo(writer);
+        for (String artifactId : artifactIds) {
+            File payload = capsuleRuntime.payloads.get(artifactId);
+            if (payload != null) {
+                phase.read(payload.length());
+                writer.splice(payload);
+            } else {
+                // Entries are copied in their compressed form, without being inflated or loaded in memory
+                for (ArchiveEntry entry : ArchiveReader.readEntries(capsuleRuntime.jarFiles.get(artifactId), getCapsuleFilter(artifactId))) {
+                    phase.read(entry.getCompressedSize());
+                    writer.write(entry);
+                }
+            }
+        }
+        phase.end();
+    }
+
+    private CapsuleRuntime prepareCapsuleRuntime(String... artifactIds) throws IOException, MojoExecutionException {
+        CapsuleRuntimeCache capsuleRuntimeCache = useCache ? new CapsuleRuntimeCache(cacheDirectory) : null;
+        CapsuleRuntime capsuleRuntime = new CapsuleRuntime();
+        List<org.eclipse.aether.artifact.Artifact> missingArtifacts = new ArrayList<org.eclipse.aether.artifact.Artifact>();
 
-        JarEntry entry;
-        while ((entry = capsuleJarInputStream.getNextJarEntry()) != null) {
-            if (entry.getName().startsWith("capsule") || entry.getName().equals(MAVEN_CAPLET_CLASS)) {
-                addToJar(entry.getName(), new ByteArrayInputStream(IOUtil.toByteArray(capsuleJarInputStream)), jarOutputStream);
+        // A cached payload is spliced without resolving or scanning the Capsule artifact
+        for (String artifactId : artifactIds) {
+            File payload = capsuleRuntimeCache != null ? capsuleRuntimeCache.get(artifactId, capsuleVersion) : null;
+            if (payload != null) {
+                capsuleRuntime.payloads.put(artifactId, payload);
+            } else {
+                missingArtifacts.add(new DefaultArtifact(CAPSULE_GROUP_ID, artifactId, null, "jar", capsuleVersion));
             }
         }
+
+        if (!missingArtifacts.isEmpty()) {
+            PackagingReport.Phase phase = report.start("capsule-resolution");
+            StringBuilder failures = new StringBuilder();
+            for (ArtifactResult artifactResult : artifactResolver.resolveArtifacts(mavenProject, missingArtifacts, getPackagingThreads())) {
+                if (artifactResult.isResolved()) {
+                    capsuleRuntime.jarFiles.put(artifactResult.getArtifact().getArtifactId(), artifactResult.getArtifact().getFile());
+                    phase.read(artifactResult.getArtifact().getFile().length()).entries(1);
+                } else {
+                    failures.append("\n  ").append(artifactResult.getRequest().getArtifact()).append(": ").append(artifactResult.getExceptions());
+                }
+            }
+
+            phase.end();
+            if (failures.length() > 0) {
+                throw new MojoExecutionException("Unable to resolve Capsule artifacts:" + failures);
+            }
+        }
+
+        if (capsuleRuntimeCache != null) {
+            for (Map.Entry<String, File> entry : capsuleRuntime.jarFiles.entrySet()) {
+                File payload = capsuleRuntimeCache.put(entry.getKey(), capsuleVersion, entry.getValue(), getCapsuleFilter(entry.getKey()));
+                if (payload != null) {
+                    capsuleRuntime.payloads.put(entry.getKey(), payload);
+                }
+            }
+        }
+
+        return capsuleRuntime;
+    }
+
+    private Predicate<String> getCapsuleFilter(String artifactId) {
+        final String capsuleClass = MAVEN_CAPLET_ARTIFACT_ID.equals(artifactId) ? MAVEN_CAPLET_CLASS : CAPSULE_CLASS;
+        return new Predicate<String>() {
+            @Override
+            public boolean apply(String name) {
+                return name.startsWith("capsule") || name.equals(capsuleClass);
+            }
+        };
     }
 
-    private JarOutputStream addManifest(JarOutputStream jar, Map<String, String> additionalAttributes, Type type) throws IOException {
-        String capsuleMainClass = type == Type.standalone ? "Capsule" : "MavenCapsule";
+    private byte[] createManifest(Map<String, String> additionalAttributes, Type type) throws IOException {
+        String capsuleMainClass = type == Type.light ? "MavenCapsule" : "Capsule";
         Manifest manifestBuild = new Manifest();
         Attributes mainAttributes = manifestBuild.getMainAttributes();
 
         mainAttributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
-        mainAttributes.put(Attributes.Name.MAIN_CLASS, capsuleMainClass);
-        mainAttributes.put(new Attributes.Name(PREMAIN_CLASS), capsuleMainClass);
+        if (type == Type.light && lockDependencies) {
+            mainAttributes.put(Attributes.Name.MAIN_CLASS, LockedLauncher.class.getName());
+        } else {
+            mainAttributes.put(Attributes.Name.MAIN_CLASS, capsuleMainClass);
+            mainAttributes.put(new Attributes.Name(PREMAIN_CLASS), capsuleMainClass);
+        }
         mainAttributes.put(new Attributes.Name(APPLICATION_CLASS), mainClass);
         mainAttributes.put(new Attributes.Name(APPLICATION_NAME), this.getOutputName());
 
@@ -263,21 +901,7 @@ public class PackageMojo extends AbstractMojo {
         ByteArrayOutputStream dataStream = new ByteArrayOutputStream();
         manifestBuild.write(dataStream);
 
-        return addToJar(JarFile.MANIFEST_NAME, new ByteArrayInputStream(dataStream.toByteArray()), jar);
-    }
-
-    private JarOutputStream addToJar(String name, InputStream input, JarOutputStream jar) throws IOException {
-        try {
-            jar.putNextEntry(new ZipEntry(name));
-            IOUtil.copy(input, jar);
-            jar.closeEntry();
-        } catch (ZipException e) {
-            // ignore
-        }
-
-        IOUtil.close(input);
-
-        return jar;
+        return dataStream.toByteArray();
     }
 
     private String getRepoString() {
@@ -290,17 +914,19 @@ public class PackageMojo extends AbstractMojo {
         return repoList.toString();
     }
 
-    private String getDependencyString() throws DependencyResolutionException, ArtifactResolutionException {
+    private String getDependencyString() {
         StringBuilder dependenciesList = new StringBuilder();
-        DependencyFilter dependencyFilter = new DependencyFilter() {
+        Predicate<Artifact> filter = new Predicate<Artifact>() {
             @Override
-            public boolean accept(DependencyNode node, List<DependencyNode> parents) {
-                return (parents.size() == 1 && !"pom".equals(node.getArtifact().getExtension())) ||
-                        (parents.size() > 1 && "pom".equals(parents.get(0).getArtifact().getExtension()));
+            public boolean apply(Artifact artifact) {
+                // Direct dependencies and dependencies brought by direct POM dependencies
+                List<String> trail = artifact.getDependencyTrail();
+                return trail != null && ((trail.size() == 2 && !"pom".equals(artifact.getType())) ||
+                        (trail.size() > 2 && "pom".equals(getTrailType(trail.get(trail.size() - 2)))));
             }
         };
 
-        for (org.eclipse.aether.artifact.Artifact artifact : getProjectArtifacts(dependencyFilter)) {
+        for (Artifact artifact : getProjectArtifacts(filter)) {
             dependenciesList
                     .append(artifact.getGroupId()).append(":")
                     .append(artifact.getArtifactId()).append(":")
@@ -312,23 +938,20 @@ public class PackageMojo extends AbstractMojo {
         return dependenciesList.toString();
     }
 
-    private Set<Artifact> getProjectArtifacts(DependencyFilter dependencyFilter) throws DependencyResolutionException {
-        List<org.eclipse.aether.graph.Dependency> managedDependencies = new ArrayList<org.eclipse.aether.graph.Dependency>();
-
-        for (Dependency dependency : mavenProject.getDependencyManagement().getDependencies()) {
-            managedDependencies.add(artifactResolver.convertDependencyToAether(dependency));
-        }
+    private String getTrailType(String trailElement) {
+        // Trail elements are formatted as groupId:artifactId:type[:classifier]:version
+        String[] parts = trailElement.split(":");
+        return parts.length > 2 ? parts[2] : null;
+    }
 
-        List<ArtifactResult> artifactResults = artifactResolver.resolveTransitiveArtifacts(
-                mavenProject,
-                artifactResolver.convertArtifactToAether(mavenProject.getArtifact()),
-                managedDependencies,
-                dependencyFilter
-        );
+    private List<Artifact> getProjectArtifacts(Predicate<Artifact> filter) {
+        // The dependency graph has already been resolved by Maven (see requiresDependencyResolution)
+        List<Artifact> artifacts = new ArrayList<Artifact>();
 
-        Set<Artifact> artifacts = new HashSet<Artifact>();
-        for (ArtifactResult artifactResult : artifactResults) {
-            artifacts.add(artifactResult.getArtifact());
+        for (Artifact artifact : mavenProject.getArtifacts()) {
+            if (filter.apply(artifact)) {
+                artifacts.add(artifact);
+            }
         }
 
         return artifacts;
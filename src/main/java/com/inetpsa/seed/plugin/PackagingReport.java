@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.inetpsa.seed.plugin.archive.ArchiveWriter;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings and sizes of the phases of a packaging, written as a JSON document so that packaging performance can be
+ * tracked across builds. Phases may be recorded concurrently. Bytes written are measured at the archive level and do
+ * not include the entry headers for phases running outside of the writing thread.
+ */
+class PackagingReport {
+    private final long startTime = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final Map<String, String> attributes = new LinkedHashMap<String, String>();
+    private final List<Phase> phases = new ArrayList<Phase>();
+
+    /**
+     * Sets a descriptive attribute of the report, like the capsule type.
+     */
+    synchronized PackagingReport attribute(String name, Object value) {
+        attributes.put(name, String.valueOf(value));
+        return this;
+    }
+
+    /**
+     * Starts timing a phase. Phases are reported in start order.
+     *
+     * @param name the phase name.
+     * @return the phase, to be ended when complete.
+     */
+    synchronized Phase start(String name) {
+        Phase phase = new Phase(name);
+        phases.add(phase);
+        return phase;
+    }
+
+    /**
+     * Logs the phases at debug level.
+     */
+    synchronized void log(Log log) {
+        if (log.isDebugEnabled()) {
+            for (Phase phase : phases) {
+                log.debug(String.format("%-60s %8d ms %12d bytes read %12d bytes written %8d entries",
+                        phase.name, phase.getTime(), phase.bytesRead, phase.bytesWritten, phase.entries));
+            }
+        }
+    }
+
+    /**
+     * Writes the report in JSON format.
+     */
+    synchronized void write(File file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            sb.append("  ").append(quote(attribute.getKey())).append(": ").append(quote(attribute.getValue())).append(",\n");
+        }
+        sb.append("  \"timestamp\": ").append(startTime).append(",\n");
+        sb.append("  \"totalTimeMs\": ").append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)).append(",\n");
+        sb.append("  \"phases\": [");
+        for (int i = 0; i < phases.size(); i++) {
+            Phase phase = phases.get(i);
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    {\"name\": ").append(quote(phase.name))
+                    .append(", \"startMs\": ").append(TimeUnit.NANOSECONDS.toMillis(phase.startNanos - startNanos))
+                    .append(", \"timeMs\": ").append(phase.getTime())
+                    .append(", \"bytesRead\": ").append(phase.bytesRead)
+                    .append(", \"bytesWritten\": ").append(phase.bytesWritten)
+                    .append(", \"entries\": ").append(phase.entries)
+                    .append("}");
+        }
+        sb.append("\n  ]\n}\n");
+
+        Files.createParentDirs(file);
+        Files.write(sb.toString(), file, Charsets.UTF_8);
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    static class Phase {
+        private final String name;
+        private final long startNanos = System.nanoTime();
+        private volatile long endNanos;
+        private volatile long bytesRead;
+        private volatile long bytesWritten;
+        private volatile int entries;
+        private ArchiveWriter writer;
+        private long initialPosition;
+        private int initialEntryCount;
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        Phase read(long bytes) {
+            bytesRead += bytes;
+            return this;
+        }
+
+        Phase written(long bytes) {
+            bytesWritten += bytes;
+            return this;
+        }
+
+        Phase entries(int count) {
+            entries += count;
+            return this;
+        }
+
+        /**
+         * Accounts the bytes and entries written to the specified writer until the end of the phase.
+         */
+        Phase writingTo(ArchiveWriter writer) {
+            this.writer = writer;
+            this.initialPosition = writer.getPosition();
+            this.initialEntryCount = writer.getEntryCount();
+            return this;
+        }
+
+        void end() {
+            if (writer != null) {
+                bytesWritten += writer.getPosition() - initialPosition;
+                entries += writer.getEntryCount() - initialEntryCount;
+                writer = null;
+            }
+            endNanos = System.nanoTime();
+        }
+
+        private long getTime() {
+            return TimeUnit.NANOSECONDS.toMillis((endNanos == 0 ? System.nanoTime() : endNanos) - startNanos);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin;
+
+import com.inetpsa.seed.plugin.runtime.OverlayClassLoader;
+
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Application class loader measuring the time spent finding and defining classes, per class path location. Times are
+ * exclusive: loading a class may trigger the loading of its super classes, whose time is only accounted to their own
+ * location. Failed lookups, which scan the whole class path, are accounted separately.
+ */
+class ProfilingClassLoader extends OverlayClassLoader {
+    static final String NOT_FOUND = "(classes not found)";
+
+    private final ConcurrentMap<String, LocationStats> stats = new ConcurrentHashMap<String, LocationStats>();
+    private final ThreadLocal<long[]> nestedTime = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    ProfilingClassLoader(List<URL> projectUrls, List<URL> additionalUrls, ClassLoader parent) {
+        super(projectUrls, additionalUrls, parent);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        long[] childTime = nestedTime.get();
+        long previousChildTime = childTime[0];
+        childTime[0] = 0;
+        long startTime = System.nanoTime();
+        String location = NOT_FOUND;
+
+        try {
+            Class<?> loadedClass = super.findClass(name);
+            location = getLocation(loadedClass);
+            return loadedClass;
+        } finally {
+            long elapsedTime = System.nanoTime() - startTime;
+            getStats(location).add(elapsedTime - childTime[0]);
+            childTime[0] = previousChildTime + elapsedTime;
+        }
+    }
+
+    /**
+     * @return the statistics of each location, slowest first.
+     */
+    List<LocationStats> getStats() {
+        List<LocationStats> result = new ArrayList<LocationStats>(stats.values());
+        Collections.sort(result, new Comparator<LocationStats>() {
+            @Override
+            public int compare(LocationStats o1, LocationStats o2) {
+                long t1 = o1.getTime();
+                long t2 = o2.getTime();
+                return t1 < t2 ? 1 : (t1 == t2 ? 0 : -1);
+            }
+        });
+        return result;
+    }
+
+    private LocationStats getStats(String location) {
+        LocationStats locationStats = stats.get(location);
+        if (locationStats == null) {
+            LocationStats newLocationStats = new LocationStats(location);
+            locationStats = stats.putIfAbsent(location, newLocationStats);
+            if (locationStats == null) {
+                locationStats = newLocationStats;
+            }
+        }
+        return locationStats;
+    }
+
+    private static String getLocation(Class<?> loadedClass) {
+        CodeSource codeSource = loadedClass.getProtectionDomain().getCodeSource();
+        if (codeSource == null || codeSource.getLocation() == null) {
+            return "(unknown)";
+        }
+        String path = codeSource.getLocation().getPath();
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    static class LocationStats {
+        private final String location;
+        private final AtomicInteger count = new AtomicInteger();
+        private final AtomicLong time = new AtomicLong();
+
+        LocationStats(String location) {
+            this.location = location;
+        }
+
+        void add(long nanos) {
+            count.incrementAndGet();
+            time.addAndGet(nanos);
+        }
+
+        String getLocation() {
+            return location;
+        }
+
+        int getCount() {
+            return count.get();
+        }
+
+        /**
+         * @return the cumulated time in nanoseconds.
+         */
+        long getTime() {
+            return time.get();
+        }
+    }
+}
@@ -9,7 +9,9 @@
  */
 package com.inetpsa.seed.plugin;
 
+import com.inetpsa.seed.plugin.runtime.ExecutionDaemon;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Execute;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
@@ -19,9 +21,16 @@ import org.codehaus.plexus.util.cli.CommandLineUtils;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
- * Defines the run goal. This goal runs a SeedStack project.
+ * Defines the run goal. This goal runs a SeedStack project. With <code>-Dwatch</code>, the Seed kernel is restarted each
+ * time the project resources or classes change, without reloading the project dependencies. Since the kernel is
+ * restarted directly, watch mode only supports the default main class without arguments.
  */
 @Mojo(name = "run", requiresProject = true, threadSafe = true, defaultPhase = LifecyclePhase.VALIDATE, requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME)
 @Execute(phase = LifecyclePhase.PROCESS_CLASSES)
@@ -33,8 +42,63 @@ public class RunMojo extends AbstractExecutionMojo {
     @Parameter(property = "args")
     private String args;
 
+    @Parameter(property = "watch", defaultValue = "false")
+    private boolean watch;
+
+    @Parameter(property = "watchInterval", defaultValue = "500")
+    private long watchInterval;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (watch && (!SeedStackConstants.mainClassName.equals(mainClass) || getCommandArguments().length > 1)) {
+            throw new MojoFailureException("Watch mode only supports the " + SeedStackConstants.mainClassName + " main class without arguments");
+        }
+        super.execute();
+    }
+
+    @Override
+    protected ClassLoader createClassLoader() throws MojoExecutionException {
+        if (watch) {
+            // Project classes are loaded by child class loaders created on each restart
+            List<URL> urls = getDependencyUrls();
+            return new URLClassLoader(urls.toArray(new URL[urls.size()]));
+        }
+        return super.createClassLoader();
+    }
+
+    @Override
+    protected boolean isProfile() {
+        if (watch && super.isProfile()) {
+            getLog().warn("Profiling is not available in watch mode");
+            return false;
+        }
+        return super.isProfile();
+    }
+
+    @Override
+    protected String getCommand() {
+        return ExecutionDaemon.RUN;
+    }
+
+    @Override
+    protected String[] getCommandArguments() throws MojoExecutionException {
+        List<String> commandArguments = new ArrayList<String>();
+        commandArguments.add(mainClass);
+        try {
+            commandArguments.addAll(Arrays.asList(CommandLineUtils.translateCommandline(args)));
+        } catch (Exception e) {
+            throw new MojoExecutionException("Invalid arguments " + args, e);
+        }
+        return commandArguments.toArray(new String[commandArguments.size()]);
+    }
+
     @Override
     protected void doRun(ClassLoader contextClassLoader) throws Exception {
+        if (watch) {
+            new HotReloader(contextClassLoader, getProjectUrls(), getProjectDirectories(), watchInterval, getLog()).run();
+            return;
+        }
+
         Method main = contextClassLoader.loadClass(mainClass).getMethod("main", String[].class);
         main.setAccessible(true);
 
@@ -0,0 +1,232 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin;
+
+import org.apache.maven.plugin.logging.Log;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Profiles the startup of an application executed in the Maven JVM:
+ * <ul>
+ * <li>a Java Flight Recorder recording is started and dumped to a file when the startup is over. It is driven through
+ * the diagnostic command MBean, available since Java 8u40 (with commercial features unlocked before Java 11),</li>
+ * <li>the startup thread is sampled to estimate the time spent in each phase of the Seed kernel startup: the
+ * initialization and start of each kernel plugin, the classpath scan and the injector creation,</li>
+ * <li>the time spent loading classes from each jar is reported when the application class loader is a
+ * {@link ProfilingClassLoader}.</li>
+ * </ul>
+ */
+class StartupProfiler {
+    private static final String DIAGNOSTIC_COMMAND_MBEAN = "com.sun.management:type=DiagnosticCommand";
+    private static final String RECORDING_NAME = "seedstack-startup";
+    private static final String PLUGIN_INTERFACE = "io.nuun.kernel.api.Plugin";
+    private static final long SAMPLING_INTERVAL = 10;
+    private static final int SUMMARY_SIZE = 10;
+
+    private final File recordingFile;
+    private final Log log;
+    private final Map<String, Integer> phaseSamples = new HashMap<String, Integer>();
+    private final Map<String, Boolean> pluginClasses = new HashMap<String, Boolean>();
+    private boolean recording;
+    private volatile boolean sampling;
+    private Thread sampler;
+    private int sampleCount;
+    private long startTime;
+    private long stopTime;
+
+    /**
+     * Creates a startup profiler.
+     *
+     * @param recordingFile the file the flight recording is dumped to.
+     * @param log           the log.
+     */
+    StartupProfiler(File recordingFile, Log log) {
+        this.recordingFile = recordingFile;
+        this.log = log;
+    }
+
+    /**
+     * @param recordingFile the file the flight recording is dumped to on exit.
+     * @return the JVM argument starting a flight recording in a forked JVM.
+     */
+    static String getRecordingJvmArg(File recordingFile) {
+        return "-XX:StartFlightRecording=name=" + RECORDING_NAME + ",settings=profile,dumponexit=true,filename=" + recordingFile.getAbsolutePath();
+    }
+
+    /**
+     * Starts profiling the startup of an application.
+     *
+     * @param startupThread the thread starting the application.
+     * @param classLoader   the application class loader.
+     */
+    void start(final Thread startupThread, final ClassLoader classLoader) {
+        recording = executeDiagnosticCommand("jfrStart", "name=" + RECORDING_NAME, "settings=profile");
+
+        sampling = true;
+        startTime = System.nanoTime();
+        sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (sampling) {
+                    sample(startupThread.getStackTrace(), classLoader);
+                    try {
+                        Thread.sleep(SAMPLING_INTERVAL);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "seedstack-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    /**
+     * Stops profiling and dumps the flight recording.
+     */
+    void stop() {
+        stopTime = System.nanoTime();
+        sampling = false;
+        // Samples are only read once the sampler has terminated
+        if (sampler != null) {
+            sampler.interrupt();
+            try {
+                sampler.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sampler = null;
+        }
+
+        if (recording) {
+            File parentFile = recordingFile.getParentFile();
+            if (parentFile != null && !parentFile.isDirectory() && !parentFile.mkdirs()) {
+                log.warn("Unable to create directory " + parentFile.getAbsolutePath());
+            }
+            if (executeDiagnosticCommand("jfrDump", "name=" + RECORDING_NAME, "filename=" + recordingFile.getAbsolutePath())) {
+                log.info("Flight recording of the startup written to " + recordingFile.getAbsolutePath());
+            }
+            executeDiagnosticCommand("jfrStop", "name=" + RECORDING_NAME);
+            recording = false;
+        }
+    }
+
+    /**
+     * Logs the summary of the startup profile.
+     *
+     * @param classLoader the application class loader.
+     */
+    void report(ClassLoader classLoader) {
+        log.info(String.format("Startup took %d ms", (stopTime - startTime) / 1000000));
+
+        if (classLoader instanceof ProfilingClassLoader) {
+            List<ProfilingClassLoader.LocationStats> locationStats = ((ProfilingClassLoader) classLoader).getStats();
+            log.info("Slowest class loading locations (exclusive time):");
+            for (ProfilingClassLoader.LocationStats stats : locationStats.subList(0, Math.min(SUMMARY_SIZE, locationStats.size()))) {
+                log.info(String.format("  %8d ms %8d classes  %s", stats.getTime() / 1000000, stats.getCount(), stats.getLocation()));
+            }
+        }
+
+        if (sampleCount > 0) {
+            List<Map.Entry<String, Integer>> phases = new ArrayList<Map.Entry<String, Integer>>(phaseSamples.entrySet());
+            Collections.sort(phases, new Comparator<Map.Entry<String, Integer>>() {
+                @Override
+                public int compare(Map.Entry<String, Integer> o1, Map.Entry<String, Integer> o2) {
+                    return o2.getValue().compareTo(o1.getValue());
+                }
+            });
+
+            // The startup duration is shared out between the phases according to their share of the samples
+            log.info(String.format("Slowest startup phases (estimated from %d samples):", sampleCount));
+            for (Map.Entry<String, Integer> phase : phases.subList(0, Math.min(SUMMARY_SIZE, phases.size()))) {
+                double share = phase.getValue() / (double) sampleCount;
+                log.info(String.format("  %8d ms %7.1f %%  %s", (long) (share * (stopTime - startTime) / 1000000), share * 100, phase.getKey()));
+            }
+        }
+    }
+
+    private void sample(StackTraceElement[] stackTrace, ClassLoader classLoader) {
+        if (!sampling || stackTrace.length == 0) {
+            return;
+        }
+
+        String phase = getPhase(stackTrace, classLoader);
+        Integer count = phaseSamples.get(phase);
+        phaseSamples.put(phase, count == null ? 1 : count + 1);
+        sampleCount++;
+    }
+
+    /**
+     * A sample belongs to the innermost kernel plugin lifecycle method on the stack. Otherwise, it belongs to the
+     * injector creation, to the classpath scan or to the kernel itself, in this order.
+     */
+    private String getPhase(StackTraceElement[] stackTrace, ClassLoader classLoader) {
+        String phase = null;
+        int phasePriority = 0;
+
+        for (StackTraceElement element : stackTrace) {
+            String className = element.getClassName();
+            String methodName = element.getMethodName();
+
+            if (("init".equals(methodName) || "postInit".equals(methodName) || "start".equals(methodName)) && isPlugin(className, classLoader)) {
+                return "Plugin " + className.substring(className.lastIndexOf('.') + 1) + "." + methodName + "()";
+            } else if (phasePriority < 3 && "com.google.inject.Guice".equals(className) && "createInjector".equals(methodName)) {
+                phase = "Injector creation";
+                phasePriority = 3;
+            } else if (phasePriority < 2 && className.startsWith("org.reflections.")) {
+                phase = "Classpath scan";
+                phasePriority = 2;
+            } else if (phasePriority < 1 && className.startsWith("io.nuun.kernel.")) {
+                phase = "Kernel " + methodName + "()";
+                phasePriority = 1;
+            }
+        }
+
+        return phase == null ? "Outside of the kernel" : phase;
+    }
+
+    private boolean isPlugin(String className, ClassLoader classLoader) {
+        Boolean plugin = pluginClasses.get(className);
+        if (plugin == null) {
+            try {
+                Class<?> pluginInterface = Class.forName(PLUGIN_INTERFACE, false, classLoader);
+                plugin = pluginInterface.isAssignableFrom(Class.forName(className, false, classLoader));
+            } catch (ClassNotFoundException e) {
+                plugin = false;
+            } catch (LinkageError e) {
+                plugin = false;
+            }
+            pluginClasses.put(className, plugin);
+        }
+        return plugin;
+    }
+
+    private boolean executeDiagnosticCommand(String command, String... arguments) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            mBeanServer.invoke(new ObjectName(DIAGNOSTIC_COMMAND_MBEAN), command, new Object[]{arguments}, new String[]{String[].class.getName()});
+            return true;
+        } catch (Exception e) {
+            log.warn("Flight recording not available in this JVM (" + command + " failed: " + e.getMessage() + ")");
+            log.debug(e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.archive;
+
+import com.google.common.base.Predicates;
+import org.apache.commons.io.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Computes the delta between two versions of an archive, to be applied by {@link ArchiveDeltaApplier}. The new archive
+ * is walked entry by entry: an entry whose local header and data are unchanged is copied from the old archive, a stored
+ * jar present under the same name in both archives is compared entry by entry in turn, and anything else is included
+ * as-is. Since only the application jar usually changes between two builds of a capsule, the delta is typically a small
+ * fraction of the capsule size, even more so when nested jars are stored.
+ */
+public class ArchiveDelta {
+    private static final int BUFFER_SIZE = 65536;
+    private static final int MAX_DATA_SIZE = 1024 * 1024;
+
+    private final RandomAccessFile oldFile;
+    private final RandomAccessFile newFile;
+    private final File oldArchive;
+    private final File newArchive;
+    private final DataOutputStream operations;
+    private final byte[] oldBuffer = new byte[BUFFER_SIZE];
+    private final byte[] newBuffer = new byte[BUFFER_SIZE];
+    private long pendingCopyOffset;
+    private long pendingCopyLength;
+    private long copiedBytes;
+
+    private ArchiveDelta(File oldArchive, RandomAccessFile oldFile, File newArchive, RandomAccessFile newFile, DataOutputStream operations) {
+        this.oldArchive = oldArchive;
+        this.oldFile = oldFile;
+        this.newArchive = newArchive;
+        this.newFile = newFile;
+        this.operations = operations;
+    }
+
+    /**
+     * Computes the delta which turns an archive into another.
+     *
+     * @param oldArchive the previous version of the archive.
+     * @param newArchive the new version of the archive.
+     * @param delta      the delta file to write.
+     * @return the number of bytes of the new archive which are copied from the old one.
+     * @throws IOException if an I/O error occurs, if one of the archives is not a supported ZIP file or if the delta
+     *                     does not rebuild the new archive, in which case it is deleted.
+     */
+    public static long compute(File oldArchive, File newArchive, File delta) throws IOException {
+        List<ArchiveEntry> oldEntries = ArchiveReader.readEntries(oldArchive, Predicates.<String>alwaysTrue());
+        List<ArchiveEntry> newEntries = ArchiveReader.readEntries(newArchive, Predicates.<String>alwaysTrue());
+
+        DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(delta), BUFFER_SIZE));
+        RandomAccessFile oldFile = null;
+        RandomAccessFile newFile = null;
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        long copiedBytes;
+        try {
+            outputStream.writeInt(ArchiveDeltaApplier.MAGIC);
+            outputStream.writeShort(ArchiveDeltaApplier.VERSION);
+            outputStream.writeLong(oldArchive.length());
+            outputStream.writeLong(ArchiveDeltaApplier.crc(oldArchive));
+            outputStream.writeLong(newArchive.length());
+            outputStream.writeLong(ArchiveDeltaApplier.crc(newArchive));
+
+            oldFile = new RandomAccessFile(oldArchive, "r");
+            newFile = new RandomAccessFile(newArchive, "r");
+            DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(outputStream, deflater, BUFFER_SIZE);
+            DataOutputStream operations = new DataOutputStream(deflaterOutputStream);
+
+            ArchiveDelta archiveDelta = new ArchiveDelta(oldArchive, oldFile, newArchive, newFile, operations);
+            archiveDelta.diff(0, oldEntries, 0, newArchive.length(), newEntries);
+            operations.flush();
+            deflaterOutputStream.finish();
+            outputStream.close();
+            copiedBytes = archiveDelta.copiedBytes;
+        } finally {
+            IOUtil.close(outputStream);
+            deflater.end();
+            if (oldFile != null) {
+                oldFile.close();
+            }
+            if (newFile != null) {
+                newFile.close();
+            }
+        }
+
+        verify(oldArchive, newArchive, delta);
+        return copiedBytes;
+    }
+
+    /**
+     * Applies the delta to the old archive and checks that the result is the new archive byte for byte, so a delta
+     * which would not rebuild it is never published.
+     */
+    private static void verify(File oldArchive, File newArchive, File delta) throws IOException {
+        File rebuiltArchive = new File(delta.getPath() + ".verify");
+        boolean success = false;
+        try {
+            ArchiveDeltaApplier.apply(oldArchive, delta, rebuiltArchive);
+            if (!FileUtils.contentEquals(newArchive, rebuiltArchive)) {
+                throw new IOException("Delta " + delta.getAbsolutePath() + " does not rebuild " + newArchive.getAbsolutePath());
+            }
+            success = true;
+        } finally {
+            rebuiltArchive.delete();
+            if (!success) {
+                delta.delete();
+            }
+        }
+    }
+
+    private void diff(long oldBase, List<ArchiveEntry> oldEntries, long newBase, long newLength, List<ArchiveEntry> newEntries) throws IOException {
+        Map<String, ArchiveEntry> oldEntriesByName = new HashMap<String, ArchiveEntry>();
+        for (ArchiveEntry oldEntry : oldEntries) {
+            if (!oldEntriesByName.containsKey(oldEntry.getName())) {
+                oldEntriesByName.put(oldEntry.getName(), oldEntry);
+            }
+        }
+
+        List<ArchiveEntry> sortedNewEntries = new ArrayList<ArchiveEntry>(newEntries);
+        Collections.sort(sortedNewEntries, new Comparator<ArchiveEntry>() {
+            @Override
+            public int compare(ArchiveEntry e1, ArchiveEntry e2) {
+                return e1.getHeaderOffset() < e2.getHeaderOffset() ? -1 : (e1.getHeaderOffset() == e2.getHeaderOffset() ? 0 : 1);
+            }
+        });
+
+        long cursor = newBase;
+        for (ArchiveEntry newEntry : sortedNewEntries) {
+            if (newEntry.getHeaderOffset() < cursor) {
+                // overlapping entries are covered by the region already emitted
+                continue;
+            }
+            data(cursor, newEntry.getHeaderOffset() - cursor);
+
+            long newEnd = newEntry.getOffset() + newEntry.getCompressedSize();
+            ArchiveEntry oldEntry = oldEntriesByName.get(newEntry.getName());
+            if (oldEntry != null && isUnchanged(oldEntry, newEntry)) {
+                copy(oldEntry.getHeaderOffset() - oldBase, newEnd - newEntry.getHeaderOffset());
+            } else if (oldEntry != null && isNestedArchive(oldEntry) && isNestedArchive(newEntry)) {
+                List<ArchiveEntry> oldNestedEntries = readNestedEntries(oldArchive, oldEntry);
+                List<ArchiveEntry> newNestedEntries = readNestedEntries(newArchive, newEntry);
+                if (oldNestedEntries != null && newNestedEntries != null) {
+                    data(newEntry.getHeaderOffset(), newEntry.getOffset() - newEntry.getHeaderOffset());
+                    flushCopy();
+                    operations.writeByte(ArchiveDeltaApplier.OP_NESTED);
+                    operations.writeLong(oldEntry.getOffset() - oldBase);
+                    operations.writeLong(oldEntry.getCompressedSize());
+                    diff(oldEntry.getOffset(), oldNestedEntries, newEntry.getOffset(), newEntry.getCompressedSize(), newNestedEntries);
+                } else {
+                    data(newEntry.getHeaderOffset(), newEnd - newEntry.getHeaderOffset());
+                }
+            } else {
+                data(newEntry.getHeaderOffset(), newEnd - newEntry.getHeaderOffset());
+            }
+            cursor = newEnd;
+        }
+
+        // Central directory and end of central directory record
+        data(cursor, newBase + newLength - cursor);
+        flushCopy();
+        operations.writeByte(ArchiveDeltaApplier.OP_END);
+    }
+
+    private boolean isUnchanged(ArchiveEntry oldEntry, ArchiveEntry newEntry) throws IOException {
+        long oldLength = oldEntry.getOffset() + oldEntry.getCompressedSize() - oldEntry.getHeaderOffset();
+        long newLength = newEntry.getOffset() + newEntry.getCompressedSize() - newEntry.getHeaderOffset();
+        if (oldLength != newLength || oldEntry.getCrc() != newEntry.getCrc() || oldEntry.getMethod() != newEntry.getMethod()) {
+            return false;
+        }
+
+        oldFile.seek(oldEntry.getHeaderOffset());
+        newFile.seek(newEntry.getHeaderOffset());
+        long remaining = newLength;
+        while (remaining > 0) {
+            int chunk = (int) Math.min(remaining, BUFFER_SIZE);
+            oldFile.readFully(oldBuffer, 0, chunk);
+            newFile.readFully(newBuffer, 0, chunk);
+            for (int i = 0; i < chunk; i++) {
+                if (oldBuffer[i] != newBuffer[i]) {
+                    return false;
+                }
+            }
+            remaining -= chunk;
+        }
+        return true;
+    }
+
+    private boolean isNestedArchive(ArchiveEntry entry) {
+        return entry.getMethod() == ZipEntry.STORED && entry.getName().endsWith(".jar") && entry.getCompressedSize() > 0;
+    }
+
+    private List<ArchiveEntry> readNestedEntries(File archive, ArchiveEntry entry) throws IOException {
+        try {
+            return ArchiveReader.readEntries(archive, entry.getOffset(), entry.getCompressedSize(), Predicates.<String>alwaysTrue());
+        } catch (ZipException e) {
+            // not a supported archive, will be included as-is
+            return null;
+        }
+    }
+
+    private void copy(long offset, long length) throws IOException {
+        if (pendingCopyLength > 0 && pendingCopyOffset + pendingCopyLength == offset) {
+            pendingCopyLength += length;
+        } else {
+            flushCopy();
+            pendingCopyOffset = offset;
+            pendingCopyLength = length;
+        }
+        copiedBytes += length;
+    }
+
+    private void flushCopy() throws IOException {
+        if (pendingCopyLength > 0) {
+            operations.writeByte(ArchiveDeltaApplier.OP_COPY);
+            operations.writeLong(pendingCopyOffset);
+            operations.writeLong(pendingCopyLength);
+            pendingCopyLength = 0;
+        }
+    }
+
+    private void data(long offset, long length) throws IOException {
+        if (length <= 0) {
+            return;
+        }
+        flushCopy();
+
+        newFile.seek(offset);
+        long remaining = length;
+        while (remaining > 0) {
+            int size = (int) Math.min(remaining, MAX_DATA_SIZE);
+            operations.writeByte(ArchiveDeltaApplier.OP_DATA);
+            operations.writeInt(size);
+            int left = size;
+            while (left > 0) {
+                int chunk = Math.min(left, BUFFER_SIZE);
+                newFile.readFully(newBuffer, 0, chunk);
+                operations.write(newBuffer, 0, chunk);
+                left -= chunk;
+            }
+            remaining -= size;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Rebuilds an archive from a previous version and a delta produced by {@link ArchiveDelta}. The result is byte for byte
+ * identical to the archive the delta was computed against, which is verified by checksum. This class only depends on
+ * the JDK so it can be run on its own where capsules are deployed:
+ * <pre>
+ * java -cp seedstack-maven-plugin.jar com.inetpsa.seed.plugin.archive.ArchiveDeltaApplier old.jar app.delta new.jar
+ * </pre>
+ * <p>
+ * A delta starts with a magic number, a format version and the length and CRC-32 of the old and new archives. The rest
+ * is deflated and consists of operations: copy a region of the old archive, insert literal bytes or apply a nested list
+ * of operations against a region of the old archive (for a stored jar nested in the archive), until an end marker.
+ */
+public class ArchiveDeltaApplier {
+    public static final int MAGIC = 0x53434444;
+    public static final int VERSION = 1;
+
+    static final int OP_END = 0;
+    static final int OP_COPY = 1;
+    static final int OP_DATA = 2;
+    static final int OP_NESTED = 3;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private ArchiveDeltaApplier() {
+        // use apply()
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: ArchiveDeltaApplier <old archive> <delta> <new archive>");
+            System.exit(2);
+        }
+        apply(new File(args[0]), new File(args[1]), new File(args[2]));
+    }
+
+    /**
+     * Applies a delta to an archive.
+     *
+     * @param oldArchive the archive the delta was computed from.
+     * @param delta      the delta file.
+     * @param newArchive the archive to create.
+     * @throws IOException if an I/O error occurs, if the old archive is not the expected one or if the result does not
+     *                     match the expected checksum, in which case it is deleted.
+     */
+    public static void apply(File oldArchive, File delta, File newArchive) throws IOException {
+        DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(delta)));
+        try {
+            if (inputStream.readInt() != MAGIC) {
+                throw new IOException(delta.getAbsolutePath() + " is not an archive delta");
+            }
+            int version = inputStream.readUnsignedShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported archive delta version " + version);
+            }
+
+            long oldLength = inputStream.readLong();
+            long oldCrc = inputStream.readLong();
+            long newLength = inputStream.readLong();
+            long newCrc = inputStream.readLong();
+
+            if (oldArchive.length() != oldLength || crc(oldArchive) != oldCrc) {
+                throw new IOException("Delta " + delta.getAbsolutePath() + " does not apply to " + oldArchive.getAbsolutePath());
+            }
+
+            Inflater inflater = new Inflater();
+            DataInputStream operations = new DataInputStream(new BufferedInputStream(new InflaterInputStream(inputStream, inflater)));
+            RandomAccessFile oldFile = null;
+            CheckedOutputStream outputStream = null;
+            boolean success = false;
+            try {
+                oldFile = new RandomAccessFile(oldArchive, "r");
+                outputStream = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(newArchive), BUFFER_SIZE), new CRC32());
+                long written = new ArchiveDeltaApplier().applyOperations(operations, oldFile, 0, oldLength, outputStream);
+                outputStream.close();
+                if (written != newLength || outputStream.getChecksum().getValue() != newCrc) {
+                    throw new IOException("Rebuilt archive " + newArchive.getAbsolutePath() + " does not match the expected checksum");
+                }
+                success = true;
+            } finally {
+                close(outputStream);
+                close(oldFile);
+                inflater.end();
+                if (!success) {
+                    newArchive.delete();
+                }
+            }
+        } finally {
+            close(inputStream);
+        }
+    }
+
+    static long crc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            close(inputStream);
+        }
+        return crc.getValue();
+    }
+
+    private long applyOperations(DataInputStream operations, RandomAccessFile oldFile, long base, long length, OutputStream outputStream) throws IOException {
+        long written = 0;
+        while (true) {
+            int operation = operations.readUnsignedByte();
+            switch (operation) {
+                case OP_END:
+                    return written;
+                case OP_COPY:
+                    long offset = operations.readLong();
+                    long size = operations.readLong();
+                    if (offset < 0 || size < 0 || offset + size > length) {
+                        throw new IOException("Invalid copy operation in archive delta");
+                    }
+                    copy(oldFile, base + offset, size, outputStream);
+                    written += size;
+                    break;
+                case OP_DATA:
+                    int dataSize = operations.readInt();
+                    long remaining = dataSize;
+                    while (remaining > 0) {
+                        int chunk = (int) Math.min(remaining, buffer.length);
+                        operations.readFully(buffer, 0, chunk);
+                        outputStream.write(buffer, 0, chunk);
+                        remaining -= chunk;
+                    }
+                    written += dataSize;
+                    break;
+                case OP_NESTED:
+                    long nestedOffset = operations.readLong();
+                    long nestedLength = operations.readLong();
+                    if (nestedOffset < 0 || nestedLength < 0 || nestedOffset + nestedLength > length) {
+                        throw new IOException("Invalid nested operation in archive delta");
+                    }
+                    written += applyOperations(operations, oldFile, base + nestedOffset, nestedLength, outputStream);
+                    break;
+                default:
+                    throw new IOException("Unknown archive delta operation " + operation);
+            }
+        }
+    }
+
+    private void copy(RandomAccessFile oldFile, long offset, long size, OutputStream outputStream) throws IOException {
+        oldFile.seek(offset);
+        long remaining = size;
+        while (remaining > 0) {
+            int chunk = (int) Math.min(remaining, buffer.length);
+            oldFile.readFully(buffer, 0, chunk);
+            outputStream.write(buffer, 0, chunk);
+            remaining -= chunk;
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.archive;
+
+import com.google.common.io.ByteStreams;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * An archive entry whose payload is already in its final form (stored or deflated), ready to be written by an
+ * {@link ArchiveWriter}. The payload is either held in memory or located in a region of a file.
+ */
+public class ArchiveEntry {
+    static final int BUFFER_SIZE = 8192;
+
+    private final String name;
+    private final int method;
+    private final long time;
+    private final long crc;
+    private final long size;
+    private final long compressedSize;
+    private final byte[] data;
+    private final File file;
+    private final long offset;
+    private final long headerOffset;
+
+    private ArchiveEntry(String name, int method, long time, long crc, long size, long compressedSize, byte[] data, File file, long offset) {
+        this(name, method, time, crc, size, compressedSize, data, file, offset, -1);
+    }
+
+    private ArchiveEntry(String name, int method, long time, long crc, long size, long compressedSize, byte[] data, File file, long offset, long headerOffset) {
+        this.name = name;
+        this.method = method;
+        this.time = time;
+        this.crc = crc;
+        this.size = size;
+        this.compressedSize = compressedSize;
+        this.data = data;
+        this.file = file;
+        this.offset = offset;
+        this.headerOffset = headerOffset;
+    }
+
+    /**
+     * Creates an entry by deflating the specified bytes. Empty payloads are stored instead.
+     */
+    public static ArchiveEntry deflate(String name, long time, byte[] bytes) throws IOException {
+        return deflate(name, time, new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Creates an entry by deflating the content of the specified file. The file modification time is used as entry time.
+     */
+    public static ArchiveEntry deflate(String name, File file) throws IOException {
+        return deflate(name, file.lastModified(), new FileInputStream(file));
+    }
+
+    /**
+     * Creates an entry by deflating the specified stream, which is closed afterwards. Deflation is deterministic: the
+     * same input always produces the same payload, regardless of the thread doing the work.
+     */
+    public static ArchiveEntry deflate(String name, long time, InputStream input) throws IOException {
+        CRC32 crc32 = new CRC32();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        long size = 0;
+
+        try {
+            DeflaterOutputStream deflaterStream = new DeflaterOutputStream(compressed, deflater, BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                crc32.update(buffer, 0, read);
+                deflaterStream.write(buffer, 0, read);
+                size += read;
+            }
+            deflaterStream.finish();
+        } finally {
+            deflater.end();
+            IOUtil.close(input);
+        }
+
+        if (size == 0) {
+            return new ArchiveEntry(name, ZipEntry.STORED, time, 0, 0, 0, new byte[0], null, 0);
+        }
+
+        byte[] data = compressed.toByteArray();
+        return new ArchiveEntry(name, ZipEntry.DEFLATED, time, crc32.getValue(), size, data.length, data, null, 0);
+    }
+
+    /**
+     * Creates a stored (uncompressed) entry for the specified file. Only the CRC is computed here, the payload itself is
+     * transferred from the file by the {@link ArchiveWriter} without going through the heap.
+     */
+    public static ArchiveEntry store(String name, File file) throws IOException {
+        CRC32 crc32 = new CRC32();
+        InputStream input = new FileInputStream(file);
+        long size = 0;
+
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                crc32.update(buffer, 0, read);
+                size += read;
+            }
+        } finally {
+            IOUtil.close(input);
+        }
+
+        return new ArchiveEntry(name, ZipEntry.STORED, file.lastModified(), crc32.getValue(), size, size, null, file, 0);
+    }
+
+    /**
+     * Creates an entry from a region of a file which already holds its payload in final form, as found in another
+     * archive. The offset of the entry local header in that archive is kept for splicing.
+     */
+    static ArchiveEntry raw(String name, int method, long time, long crc, long size, long compressedSize, File file, long offset, long headerOffset) {
+        return new ArchiveEntry(name, method, time, crc, size, compressedSize, null, file, offset, headerOffset);
+    }
+
+    /**
+     * Opens a stream on the uncompressed content of the entry.
+     */
+    public InputStream openStream() throws IOException {
+        InputStream inputStream;
+        if (data != null) {
+            inputStream = new ByteArrayInputStream(data);
+        } else {
+            FileInputStream fileInputStream = new FileInputStream(file);
+            ByteStreams.skipFully(fileInputStream, offset);
+            inputStream = ByteStreams.limit(fileInputStream, compressedSize);
+        }
+
+        if (method == ZipEntry.DEFLATED) {
+            return new InflaterInputStream(inputStream, new Inflater(true), BUFFER_SIZE);
+        } else {
+            return inputStream;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMethod() {
+        return method;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public long getCrc() {
+        return crc;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    long getHeaderOffset() {
+        return headerOffset;
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.archive;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicates;
+import com.google.common.io.CharStreams;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipException;
+
+/**
+ * Merges the content of several archives into a single flat one. Archives are added in classpath order. Entries present
+ * in several archives are resolved according to a {@link DuplicateStrategy}, except identical copies which are silently
+ * deduplicated. Service descriptors are merged line by line and resources matching one of the merged prefixes are
+ * concatenated. Manifests and signature files of the sources are dropped. Other entries are copied in their compressed
+ * form.
+ */
+public class ArchiveMerger {
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+
+    /**
+     * How to resolve an entry present with different contents in several archives.
+     */
+    public enum DuplicateStrategy {
+        /**
+         * Keep the entry from the first archive, as a classpath lookup would.
+         */
+        first,
+        /**
+         * Keep the entry from the last archive.
+         */
+        last,
+        /**
+         * Fail the merge.
+         */
+        fail
+    }
+
+    private final DuplicateStrategy duplicateStrategy;
+    private final List<String> mergedPrefixes;
+    private final Map<String, List<ArchiveEntry>> entries = new LinkedHashMap<String, List<ArchiveEntry>>();
+    private final Map<ArchiveEntry, File> sources = new HashMap<ArchiveEntry, File>();
+    private final List<String> conflicts = new ArrayList<String>();
+
+    /**
+     * Creates a merger.
+     *
+     * @param duplicateStrategy the strategy for entries present with different contents in several archives.
+     * @param mergedPrefixes    the name prefixes of resources to concatenate instead of resolving them as duplicates.
+     */
+    public ArchiveMerger(DuplicateStrategy duplicateStrategy, List<String> mergedPrefixes) {
+        this.duplicateStrategy = duplicateStrategy;
+        this.mergedPrefixes = mergedPrefixes == null ? new ArrayList<String>() : mergedPrefixes;
+    }
+
+    /**
+     * Adds the entries of an archive after the entries of previously added archives.
+     *
+     * @param archive the archive file.
+     * @return the number of entries read from the archive.
+     * @throws IOException if the archive cannot be read.
+     */
+    public int add(File archive) throws IOException {
+        List<ArchiveEntry> archiveEntries = ArchiveReader.readEntries(archive, Predicates.<String>alwaysTrue());
+        for (ArchiveEntry entry : archiveEntries) {
+            if (isExcluded(entry.getName())) {
+                continue;
+            }
+
+            List<ArchiveEntry> candidates = entries.get(entry.getName());
+            if (candidates == null) {
+                candidates = new ArrayList<ArchiveEntry>(1);
+                entries.put(entry.getName(), candidates);
+            }
+            candidates.add(entry);
+            sources.put(entry, archive);
+        }
+        return archiveEntries.size();
+    }
+
+    /**
+     * Writes the merged entries, in order of first appearance.
+     *
+     * @param writer the destination writer.
+     * @throws IOException if an I/O error occurs or if a conflict is found with the {@link DuplicateStrategy#fail} strategy.
+     */
+    public void writeTo(ArchiveWriter writer) throws IOException {
+        for (Map.Entry<String, List<ArchiveEntry>> mapEntry : entries.entrySet()) {
+            String name = mapEntry.getKey();
+            List<ArchiveEntry> candidates = mapEntry.getValue();
+
+            if (candidates.size() == 1 || name.endsWith("/")) {
+                writer.write(candidates.get(0));
+            } else if (name.startsWith(SERVICES_PREFIX)) {
+                writer.write(ArchiveEntry.deflate(name, candidates.get(0).getTime(), mergeServices(candidates)));
+            } else if (isMerged(name)) {
+                writer.write(ArchiveEntry.deflate(name, candidates.get(0).getTime(), concatenate(candidates)));
+            } else {
+                writer.write(resolveDuplicate(name, candidates));
+            }
+        }
+    }
+
+    /**
+     * @return the descriptions of entries present with different contents in several archives.
+     */
+    public List<String> getConflicts() {
+        return conflicts;
+    }
+
+    private ArchiveEntry resolveDuplicate(String name, List<ArchiveEntry> candidates) throws IOException {
+        ArchiveEntry first = candidates.get(0);
+        List<File> conflictingSources = new ArrayList<File>();
+        conflictingSources.add(sources.get(first));
+
+        for (ArchiveEntry candidate : candidates) {
+            if (candidate.getCrc() != first.getCrc() || candidate.getSize() != first.getSize()) {
+                conflictingSources.add(sources.get(candidate));
+            }
+        }
+
+        if (conflictingSources.size() == 1) {
+            return first;
+        }
+
+        String conflict = String.format("%s found with different contents in %s", name, conflictingSources);
+        if (duplicateStrategy == DuplicateStrategy.fail) {
+            throw new ZipException("Duplicate entry " + conflict);
+        }
+        conflicts.add(conflict);
+
+        return duplicateStrategy == DuplicateStrategy.last ? candidates.get(candidates.size() - 1) : first;
+    }
+
+    private byte[] mergeServices(List<ArchiveEntry> candidates) throws IOException {
+        Set<String> providers = new LinkedHashSet<String>();
+        for (ArchiveEntry candidate : candidates) {
+            for (String line : readLines(candidate)) {
+                int commentIndex = line.indexOf('#');
+                String provider = (commentIndex >= 0 ? line.substring(0, commentIndex) : line).trim();
+                if (provider.length() > 0) {
+                    providers.add(provider);
+                }
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (String provider : providers) {
+            sb.append(provider).append('\n');
+        }
+        return sb.toString().getBytes(Charsets.UTF_8);
+    }
+
+    private byte[] concatenate(List<ArchiveEntry> candidates) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (ArchiveEntry candidate : candidates) {
+            InputStream inputStream = candidate.openStream();
+            try {
+                IOUtil.copy(inputStream, outputStream);
+            } finally {
+                IOUtil.close(inputStream);
+            }
+            outputStream.write('\n');
+        }
+        return outputStream.toByteArray();
+    }
+
+    private List<String> readLines(ArchiveEntry entry) throws IOException {
+        InputStreamReader reader = new InputStreamReader(entry.openStream(), Charsets.UTF_8);
+        try {
+            return CharStreams.readLines(reader);
+        } finally {
+            IOUtil.close(reader);
+        }
+    }
+
+    private boolean isMerged(String name) {
+        for (String mergedPrefix : mergedPrefixes) {
+            if (name.startsWith(mergedPrefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isExcluded(String name) {
+        String upperCaseName = name.toUpperCase();
+        if (upperCaseName.equals("META-INF/MANIFEST.MF") || upperCaseName.equals("META-INF/INDEX.LIST")) {
+            return true;
+        }
+        if (upperCaseName.startsWith("META-INF/") && upperCaseName.indexOf('/', "META-INF/".length()) == -1) {
+            // Signature files of the sources are invalid in the merged archive
+            return upperCaseName.endsWith(".SF") || upperCaseName.endsWith(".DSA") || upperCaseName.endsWith(".RSA") || upperCaseName.endsWith(".EC");
+        }
+        return false;
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.archive;
+
+import com.google.common.base.Predicate;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory of a ZIP archive and exposes its entries in their raw (stored or compressed) form. The
+ * resulting entries point to a region of the archive file, so they can be copied by an {@link ArchiveWriter} without
+ * being inflated, recompressed or loaded in memory. ZIP64 archives are supported.
+ */
+public class ArchiveReader {
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private ArchiveReader() {
+        // no instantiation allowed
+    }
+
+    /**
+     * Reads the entries of the specified archive.
+     *
+     * @param file   the archive file.
+     * @param filter the predicate entry names must match to be returned.
+     * @return the matching entries, in central directory order.
+     * @throws IOException if an I/O error occurs or if the archive is not a supported ZIP file.
+     */
+    public static List<ArchiveEntry> readEntries(File file, Predicate<String> filter) throws IOException {
+        return readEntries(file, 0, file.length(), filter);
+    }
+
+    /**
+     * Reads the entries of an archive located in a region of the specified file, like a jar stored in another archive.
+     * Offsets of the returned entries are relative to the start of the file.
+     *
+     * @param file   the file containing the archive.
+     * @param base   the offset of the archive in the file.
+     * @param length the length of the archive.
+     * @param filter the predicate entry names must match to be returned.
+     * @return the matching entries, in central directory order.
+     * @throws IOException if an I/O error occurs or if the archive is not a supported ZIP file.
+     */
+    public static List<ArchiveEntry> readEntries(File file, long base, long length, Predicate<String> filter) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            long endOffset = findEndOfCentralDirectory(channel, base, length, file);
+            ByteBuffer end = read(channel, endOffset, ArchiveWriter.END_OF_CENTRAL_DIRECTORY_SIZE);
+            long entryCount = end.getShort(10) & 0xFFFF;
+            long centralDirectorySize = end.getInt(12) & 0xFFFFFFFFL;
+            long centralDirectoryOffset = end.getInt(16) & 0xFFFFFFFFL;
+
+            // Saturated values are only placeholders when a ZIP64 end record is present: an archive of exactly 65535
+            // entries is valid without one
+            ByteBuffer zip64End = findZip64EndOfCentralDirectory(channel, base, endOffset, file);
+            if (zip64End != null) {
+                entryCount = zip64End.getLong(32);
+                centralDirectorySize = zip64End.getLong(40);
+                centralDirectoryOffset = zip64End.getLong(48);
+            }
+
+            if (centralDirectorySize > Integer.MAX_VALUE || centralDirectoryOffset + centralDirectorySize > length) {
+                throw new ZipException("Invalid central directory in " + file.getAbsolutePath());
+            }
+
+            ByteBuffer centralDirectory = read(channel, base + centralDirectoryOffset, (int) centralDirectorySize);
+            List<ArchiveEntry> entries = new ArrayList<ArchiveEntry>();
+            for (long i = 0; i < entryCount; i++) {
+                int position = centralDirectory.position();
+                if (centralDirectory.getInt(position) != ArchiveWriter.CENTRAL_HEADER_SIGNATURE) {
+                    throw new ZipException("Invalid central directory in " + file.getAbsolutePath());
+                }
+
+                int flags = centralDirectory.getShort(position + 8) & 0xFFFF;
+                int method = centralDirectory.getShort(position + 10) & 0xFFFF;
+                long dosTime = centralDirectory.getInt(position + 12) & 0xFFFFFFFFL;
+                long crc = centralDirectory.getInt(position + 16) & 0xFFFFFFFFL;
+                long compressedSize = centralDirectory.getInt(position + 20) & 0xFFFFFFFFL;
+                long size = centralDirectory.getInt(position + 24) & 0xFFFFFFFFL;
+                int nameLength = centralDirectory.getShort(position + 28) & 0xFFFF;
+                int extraLength = centralDirectory.getShort(position + 30) & 0xFFFF;
+                int commentLength = centralDirectory.getShort(position + 32) & 0xFFFF;
+                long relativeHeaderOffset = centralDirectory.getInt(position + 42) & 0xFFFFFFFFL;
+
+                byte[] nameBytes = new byte[nameLength];
+                centralDirectory.position(position + ArchiveWriter.CENTRAL_HEADER_SIZE);
+                centralDirectory.get(nameBytes);
+
+                // Saturated fields are stored in the ZIP64 extra field, in this order
+                if (size == ArchiveWriter.ZIP64_MAGIC || compressedSize == ArchiveWriter.ZIP64_MAGIC || relativeHeaderOffset == ArchiveWriter.ZIP64_MAGIC) {
+                    int zip64Position = findExtraField(centralDirectory, position + ArchiveWriter.CENTRAL_HEADER_SIZE + nameLength, extraLength, ArchiveWriter.ZIP64_EXTRA_ID);
+                    if (zip64Position < 0) {
+                        throw new ZipException("Missing ZIP64 extra field for entry " + new String(nameBytes, "UTF-8") + " in " + file.getAbsolutePath());
+                    }
+                    if (size == ArchiveWriter.ZIP64_MAGIC) {
+                        size = centralDirectory.getLong(zip64Position);
+                        zip64Position += 8;
+                    }
+                    if (compressedSize == ArchiveWriter.ZIP64_MAGIC) {
+                        compressedSize = centralDirectory.getLong(zip64Position);
+                        zip64Position += 8;
+                    }
+                    if (relativeHeaderOffset == ArchiveWriter.ZIP64_MAGIC) {
+                        relativeHeaderOffset = centralDirectory.getLong(zip64Position);
+                    }
+                }
+                long localHeaderOffset = base + relativeHeaderOffset;
+                centralDirectory.position(position + ArchiveWriter.CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength);
+
+                String name = new String(nameBytes, "UTF-8");
+                if (!filter.apply(name)) {
+                    continue;
+                }
+
+                if ((flags & 1) != 0) {
+                    throw new ZipException("Encrypted entries are not supported: " + name);
+                }
+
+                ByteBuffer localHeader = read(channel, localHeaderOffset, ArchiveWriter.LOCAL_HEADER_SIZE);
+                if (localHeader.getInt(0) != ArchiveWriter.LOCAL_HEADER_SIGNATURE) {
+                    throw new ZipException("Invalid local header for entry " + name + " in " + file.getAbsolutePath());
+                }
+                long dataOffset = localHeaderOffset + ArchiveWriter.LOCAL_HEADER_SIZE
+                        + (localHeader.getShort(26) & 0xFFFF)
+                        + (localHeader.getShort(28) & 0xFFFF);
+
+                entries.add(ArchiveEntry.raw(name, method, fromDosTime(dosTime), crc, size, compressedSize, file, dataOffset, localHeaderOffset));
+            }
+
+            return entries;
+        } finally {
+            IOUtil.close(channel);
+        }
+    }
+
+    /**
+     * @return the offset of the end of central directory record in the file.
+     */
+    private static long findEndOfCentralDirectory(FileChannel channel, long base, long length, File file) throws IOException {
+        int tailSize = (int) Math.min(length, ArchiveWriter.END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+        if (tailSize < ArchiveWriter.END_OF_CENTRAL_DIRECTORY_SIZE) {
+            throw new ZipException("Unable to find central directory in " + file.getAbsolutePath());
+        }
+        long tailOffset = base + length - tailSize;
+        ByteBuffer tail = read(channel, tailOffset, tailSize);
+
+        for (int i = tailSize - ArchiveWriter.END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == ArchiveWriter.END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                return tailOffset + i;
+            }
+        }
+
+        throw new ZipException("Unable to find central directory in " + file.getAbsolutePath());
+    }
+
+    /**
+     * @return the ZIP64 end of central directory record, or null if the archive has none.
+     */
+    private static ByteBuffer findZip64EndOfCentralDirectory(FileChannel channel, long base, long endOffset, File file) throws IOException {
+        long locatorOffset = endOffset - ArchiveWriter.ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE;
+        if (locatorOffset < base) {
+            return null;
+        }
+        ByteBuffer locator = read(channel, locatorOffset, ArchiveWriter.ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE);
+        if (locator.getInt(0) != ArchiveWriter.ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE) {
+            return null;
+        }
+
+        long zip64EndOffset = locator.getLong(8);
+        if (zip64EndOffset < 0 || base + zip64EndOffset + ArchiveWriter.ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE > locatorOffset) {
+            throw new ZipException("Invalid ZIP64 end of central directory locator in " + file.getAbsolutePath());
+        }
+        ByteBuffer zip64End = read(channel, base + zip64EndOffset, ArchiveWriter.ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE);
+        if (zip64End.getInt(0) != ArchiveWriter.ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+            throw new ZipException("Invalid ZIP64 end of central directory in " + file.getAbsolutePath());
+        }
+        return zip64End;
+    }
+
+    /**
+     * @return the position of the data of an extra field, or -1 if it is not present.
+     */
+    private static int findExtraField(ByteBuffer buffer, int offset, int length, int id) {
+        int position = offset;
+        while (position + 4 <= offset + length) {
+            int fieldId = buffer.getShort(position) & 0xFFFF;
+            int fieldLength = buffer.getShort(position + 2) & 0xFFFF;
+            if (fieldId == id) {
+                return position + 4;
+            }
+            position += 4 + fieldLength;
+        }
+        return -1;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long offset, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of archive");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    static long fromDosTime(long dosTime) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(
+                (int) ((dosTime >> 25) & 0x7f) + 1980,
+                (int) ((dosTime >> 21) & 0x0f) - 1,
+                (int) ((dosTime >> 16) & 0x1f),
+                (int) ((dosTime >> 11) & 0x1f),
+                (int) ((dosTime >> 5) & 0x3f),
+                (int) ((dosTime << 1) & 0x3e));
+        return calendar.getTimeInMillis();
+    }
+}
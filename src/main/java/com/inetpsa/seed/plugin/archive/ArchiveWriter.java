@@ -0,0 +1,333 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.archive;
+
+import com.google.common.base.Predicates;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a ZIP archive from entries whose payload is already stored or deflated. Since sizes and CRC are known up-front,
+ * no data descriptor is written. Entries with a duplicate name are ignored. As <code>java.util.zip</code> does since
+ * Java 7, ZIP64 extra fields and end records are only written for the sizes, offsets and entry counts exceeding the
+ * limits of the original format, so small archives remain readable by any tool.
+ */
+public class ArchiveWriter implements Closeable {
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56;
+    static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE = 20;
+    static final int ZIP64_EXTRA_ID = 0x0001;
+    static final int UTF8_FLAG = 0x800;
+    static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final int ZIP64_VERSION = 45;
+
+    private final FileOutputStream outputStream;
+    private final FileChannel channel;
+    private final List<Record> records = new ArrayList<Record>();
+    private final Set<String> names = new HashSet<String>();
+    private long position;
+    private boolean closed;
+    private File sourceFile;
+    private FileInputStream sourceStream;
+
+    public ArchiveWriter(File file) throws FileNotFoundException {
+        this.outputStream = new FileOutputStream(file);
+        this.channel = outputStream.getChannel();
+    }
+
+    /**
+     * Writes the specified entry at the end of the archive.
+     *
+     * @param entry the entry to write.
+     * @return true if the entry was written, false if an entry with the same name was already present.
+     * @throws IOException if an I/O error occurs.
+     */
+    public boolean write(ArchiveEntry entry) throws IOException {
+        if (!names.add(entry.getName())) {
+            return false;
+        }
+
+        Record record = new Record(entry, position);
+        // The local header only holds the sizes, the offset is in the central directory
+        boolean zip64 = record.size >= ZIP64_MAGIC || record.compressedSize >= ZIP64_MAGIC;
+        int extraLength = zip64 ? 20 : 0;
+        ByteBuffer header = allocate(LOCAL_HEADER_SIZE + record.name.length + extraLength);
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort((short) (zip64 ? ZIP64_VERSION : record.getVersionNeeded()));
+        header.putShort((short) UTF8_FLAG);
+        header.putShort((short) entry.getMethod());
+        header.putInt((int) record.dosTime);
+        header.putInt((int) entry.getCrc());
+        header.putInt((int) (zip64 ? ZIP64_MAGIC : record.compressedSize));
+        header.putInt((int) (zip64 ? ZIP64_MAGIC : record.size));
+        header.putShort((short) record.name.length);
+        header.putShort((short) extraLength);
+        header.put(record.name);
+        if (zip64) {
+            header.putShort((short) ZIP64_EXTRA_ID);
+            header.putShort((short) 16);
+            header.putLong(record.size);
+            header.putLong(record.compressedSize);
+        }
+        header.flip();
+        writeBuffer(header);
+
+        if (entry.getData() != null) {
+            writeBuffer(ByteBuffer.wrap(entry.getData()));
+        } else {
+            transfer(entry.getFile(), entry.getOffset(), entry.getCompressedSize());
+        }
+
+        records.add(record);
+        return true;
+    }
+
+    /**
+     * Appends all the entries of an archive previously produced by an ArchiveWriter. The entries region is transferred
+     * as a single block and only the central directory records are rebuilt. If some entry names are already present,
+     * entries are copied one by one instead and duplicates are ignored.
+     *
+     * @param archive the archive to splice, which must have been produced by an ArchiveWriter.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void splice(File archive) throws IOException {
+        List<ArchiveEntry> entries = ArchiveReader.readEntries(archive, Predicates.<String>alwaysTrue());
+
+        long end = 0;
+        boolean conflict = false;
+        for (ArchiveEntry entry : entries) {
+            end = Math.max(end, entry.getOffset() + entry.getCompressedSize());
+            conflict |= names.contains(entry.getName());
+        }
+
+        if (conflict) {
+            for (ArchiveEntry entry : entries) {
+                write(entry);
+            }
+            return;
+        }
+
+        long base = position;
+        transfer(archive, 0, end);
+
+        for (ArchiveEntry entry : entries) {
+            names.add(entry.getName());
+            records.add(new Record(entry, base + entry.getHeaderOffset()));
+        }
+    }
+
+    /**
+     * @return the number of bytes written so far, excluding the central directory.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the number of entries written so far.
+     */
+    public int getEntryCount() {
+        return records.size();
+    }
+
+    /**
+     * Writes the central directory and closes the archive.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            long centralDirectoryOffset = position;
+            for (Record record : records) {
+                // Only the fields exceeding the limits are moved to the ZIP64 extra field, in this order
+                boolean zip64Size = record.size >= ZIP64_MAGIC;
+                boolean zip64CompressedSize = record.compressedSize >= ZIP64_MAGIC;
+                boolean zip64Offset = record.offset >= ZIP64_MAGIC;
+                int zip64Length = (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+                int extraLength = zip64Length > 0 ? 4 + zip64Length : 0;
+
+                ByteBuffer header = allocate(CENTRAL_HEADER_SIZE + record.name.length + extraLength);
+                header.putInt(CENTRAL_HEADER_SIGNATURE);
+                header.putShort((short) (zip64Length > 0 ? ZIP64_VERSION : 20));
+                header.putShort((short) (zip64Length > 0 ? ZIP64_VERSION : record.getVersionNeeded()));
+                header.putShort((short) UTF8_FLAG);
+                header.putShort((short) record.method);
+                header.putInt((int) record.dosTime);
+                header.putInt((int) record.crc);
+                header.putInt((int) (zip64CompressedSize ? ZIP64_MAGIC : record.compressedSize));
+                header.putInt((int) (zip64Size ? ZIP64_MAGIC : record.size));
+                header.putShort((short) record.name.length);
+                header.putShort((short) extraLength);
+                header.putShort((short) 0);
+                header.putShort((short) 0);
+                header.putShort((short) 0);
+                header.putInt(0);
+                header.putInt((int) (zip64Offset ? ZIP64_MAGIC : record.offset));
+                header.put(record.name);
+                if (zip64Length > 0) {
+                    header.putShort((short) ZIP64_EXTRA_ID);
+                    header.putShort((short) zip64Length);
+                    if (zip64Size) {
+                        header.putLong(record.size);
+                    }
+                    if (zip64CompressedSize) {
+                        header.putLong(record.compressedSize);
+                    }
+                    if (zip64Offset) {
+                        header.putLong(record.offset);
+                    }
+                }
+                header.flip();
+                writeBuffer(header);
+            }
+
+            long centralDirectorySize = position - centralDirectoryOffset;
+            boolean zip64 = records.size() >= ZIP64_MAGIC_COUNT || centralDirectorySize >= ZIP64_MAGIC || centralDirectoryOffset >= ZIP64_MAGIC;
+            if (zip64) {
+                long zip64EndOffset = position;
+                ByteBuffer zip64End = allocate(ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE + ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE);
+                zip64End.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+                zip64End.putLong(ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE - 12);
+                zip64End.putShort((short) ZIP64_VERSION);
+                zip64End.putShort((short) ZIP64_VERSION);
+                zip64End.putInt(0);
+                zip64End.putInt(0);
+                zip64End.putLong(records.size());
+                zip64End.putLong(records.size());
+                zip64End.putLong(centralDirectorySize);
+                zip64End.putLong(centralDirectoryOffset);
+                zip64End.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE);
+                zip64End.putInt(0);
+                zip64End.putLong(zip64EndOffset);
+                zip64End.putInt(1);
+                zip64End.flip();
+                writeBuffer(zip64End);
+            }
+
+            ByteBuffer end = allocate(END_OF_CENTRAL_DIRECTORY_SIZE);
+            end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            end.putShort((short) 0);
+            end.putShort((short) 0);
+            end.putShort((short) Math.min(records.size(), ZIP64_MAGIC_COUNT));
+            end.putShort((short) Math.min(records.size(), ZIP64_MAGIC_COUNT));
+            end.putInt((int) Math.min(centralDirectorySize, ZIP64_MAGIC));
+            end.putInt((int) Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+            end.putShort((short) 0);
+            end.flip();
+            writeBuffer(end);
+        } finally {
+            closeSource();
+            IOUtil.close(outputStream);
+        }
+    }
+
+    private void transfer(File file, long offset, long count) throws IOException {
+        // Consecutive entries often come from the same file, which is kept open between them
+        if (!file.equals(sourceFile)) {
+            closeSource();
+            sourceStream = new FileInputStream(file);
+            sourceFile = file;
+        }
+
+        FileChannel source = sourceStream.getChannel();
+        long transferred = 0;
+        while (transferred < count) {
+            long n = source.transferTo(offset + transferred, count - transferred, channel);
+            if (n <= 0) {
+                throw new ZipException("Unexpected end of file " + file.getAbsolutePath());
+            }
+            transferred += n;
+        }
+        position += count;
+    }
+
+    private void closeSource() {
+        IOUtil.close(sourceStream);
+        sourceStream = null;
+        sourceFile = null;
+    }
+
+    private void writeBuffer(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer);
+        }
+    }
+
+    private ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static long toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private static class Record {
+        private final byte[] name;
+        private final int method;
+        private final long dosTime;
+        private final long crc;
+        private final long size;
+        private final long compressedSize;
+        private final long offset;
+
+        Record(ArchiveEntry entry, long offset) throws IOException {
+            this.name = entry.getName().getBytes("UTF-8");
+            this.method = entry.getMethod();
+            this.dosTime = toDosTime(entry.getTime());
+            this.crc = entry.getCrc();
+            this.size = entry.getSize();
+            this.compressedSize = entry.getCompressedSize();
+            this.offset = offset;
+        }
+
+        int getVersionNeeded() {
+            return method == ZipEntry.DEFLATED ? 20 : 10;
+        }
+    }
+}
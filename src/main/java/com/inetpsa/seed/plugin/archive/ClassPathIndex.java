@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.archive;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Index of the classes and resources of the jars nested in a capsule, so a launcher can go straight to the jar holding
+ * a class or resource instead of searching each jar in turn. Classes are indexed by package and other resources by
+ * name. A package or resource present in several jars maps to all of them, in classpath order.
+ * <p>
+ * The binary format starts with a magic number and a format version, followed by the jar names, then the package and
+ * resource tables, each element pointing to jars by their index. This class only depends on the JDK so it can be used at
+ * runtime.
+ */
+public class ClassPathIndex {
+    public static final String ENTRY_NAME = "META-INF/seedstack/classpath.idx";
+    public static final int MAGIC = 0x53435049;
+    public static final int VERSION = 1;
+
+    private final List<String> jars = new ArrayList<String>();
+    private final Map<String, List<Integer>> packages = new TreeMap<String, List<Integer>>();
+    private final Map<String, List<Integer>> resources = new TreeMap<String, List<Integer>>();
+
+    /**
+     * Adds a jar to the index, after previously added jars.
+     *
+     * @param jarName    the name of the jar in the capsule.
+     * @param entryNames the names of the jar entries.
+     */
+    public void addJar(String jarName, Collection<String> entryNames) {
+        int jarIndex = jars.size();
+        jars.add(jarName);
+
+        for (String entryName : entryNames) {
+            if (entryName.endsWith("/") || entryName.equalsIgnoreCase("META-INF/MANIFEST.MF")) {
+                continue;
+            }
+
+            if (entryName.endsWith(".class")) {
+                int lastSlash = entryName.lastIndexOf('/');
+                register(packages, lastSlash == -1 ? "" : entryName.substring(0, lastSlash), jarIndex);
+            } else {
+                register(resources, entryName, jarIndex);
+            }
+        }
+    }
+
+    /**
+     * Finds the jars which may contain the specified class file or resource.
+     *
+     * @param resourceName the resource name, like "org/seedstack/seed/core/SeedMain.class".
+     * @return the jar names, in classpath order, or an empty list if none contains it.
+     */
+    public List<String> findJars(String resourceName) {
+        List<Integer> jarIndices;
+        if (resourceName.endsWith(".class")) {
+            int lastSlash = resourceName.lastIndexOf('/');
+            jarIndices = packages.get(lastSlash == -1 ? "" : resourceName.substring(0, lastSlash));
+        } else {
+            jarIndices = resources.get(resourceName);
+        }
+
+        if (jarIndices == null) {
+            return Collections.emptyList();
+        }
+
+        List<String> result = new ArrayList<String>(jarIndices.size());
+        for (Integer jarIndex : jarIndices) {
+            result.add(jars.get(jarIndex));
+        }
+        return result;
+    }
+
+    /**
+     * Writes the index in binary form. The stream is not closed.
+     */
+    public void write(OutputStream outputStream) throws IOException {
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        dataOutputStream.writeInt(MAGIC);
+        dataOutputStream.writeShort(VERSION);
+
+        dataOutputStream.writeInt(jars.size());
+        for (String jar : jars) {
+            dataOutputStream.writeUTF(jar);
+        }
+
+        writeTable(dataOutputStream, packages);
+        writeTable(dataOutputStream, resources);
+        dataOutputStream.flush();
+    }
+
+    /**
+     * Reads an index in binary form. The stream is not closed.
+     *
+     * @throws IOException if an I/O error occurs or if the format is not supported.
+     */
+    public static ClassPathIndex read(InputStream inputStream) throws IOException {
+        DataInputStream dataInputStream = new DataInputStream(inputStream);
+        if (dataInputStream.readInt() != MAGIC) {
+            throw new IOException("Not a class path index");
+        }
+
+        int version = dataInputStream.readUnsignedShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported class path index version " + version);
+        }
+
+        ClassPathIndex classPathIndex = new ClassPathIndex();
+        int jarCount = dataInputStream.readInt();
+        for (int i = 0; i < jarCount; i++) {
+            classPathIndex.jars.add(dataInputStream.readUTF());
+        }
+
+        readTable(dataInputStream, classPathIndex.packages);
+        readTable(dataInputStream, classPathIndex.resources);
+        return classPathIndex;
+    }
+
+    private static void register(Map<String, List<Integer>> table, String key, int jarIndex) {
+        List<Integer> jarIndices = table.get(key);
+        if (jarIndices == null) {
+            jarIndices = new ArrayList<Integer>(1);
+            table.put(key, jarIndices);
+        }
+        if (!jarIndices.contains(jarIndex)) {
+            jarIndices.add(jarIndex);
+        }
+    }
+
+    private static void writeTable(DataOutputStream dataOutputStream, Map<String, List<Integer>> table) throws IOException {
+        dataOutputStream.writeInt(table.size());
+        for (Map.Entry<String, List<Integer>> entry : table.entrySet()) {
+            dataOutputStream.writeUTF(entry.getKey());
+            dataOutputStream.writeShort(entry.getValue().size());
+            for (Integer jarIndex : entry.getValue()) {
+                dataOutputStream.writeInt(jarIndex);
+            }
+        }
+    }
+
+    private static void readTable(DataInputStream dataInputStream, Map<String, List<Integer>> table) throws IOException {
+        int size = dataInputStream.readInt();
+        for (int i = 0; i < size; i++) {
+            String key = dataInputStream.readUTF();
+            int jarCount = dataInputStream.readUnsignedShort();
+            List<Integer> jarIndices = new ArrayList<Integer>(jarCount);
+            for (int j = 0; j < jarCount; j++) {
+                jarIndices.add(dataInputStream.readInt());
+            }
+            table.put(key, jarIndices);
+        }
+    }
+}
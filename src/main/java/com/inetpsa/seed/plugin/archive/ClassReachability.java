@@ -0,0 +1,330 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.archive;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.io.ByteStreams;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Computes the classes reachable from a set of roots across several archives, to drop the others from a capsule.
+ * References are found in the constant pool of class files: class constants, type descriptors and generic signatures,
+ * and string constants naming a known class (as passed to <code>Class.forName()</code>). Class names found in text
+ * resources, like configuration files, are roots too, as are the providers of service descriptors. This is a
+ * conservative over-approximation, but classes only reached through computed names must be kept with keep rules.
+ * <p>
+ * Keep rules are class names where <code>*</code> matches any part of a name except a dot and <code>**</code> any part
+ * of a name, like <code>org.example.Plugin</code>, <code>org.example.model.*</code> or <code>org.example.**</code>.
+ */
+public class ClassReachability {
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+    private static final int MAX_TEXT_RESOURCE_SIZE = 1024 * 1024;
+    private static final Pattern DESCRIPTOR_TYPE = Pattern.compile("L([^;<>\\[\\s]+)[;<]");
+    private static final Pattern DOTTED_NAME = Pattern.compile("[A-Za-z_$][\\w$]*(?:\\.[A-Za-z_$][\\w$]*)+");
+    private static final String[] TEXT_EXTENSIONS = {".xml", ".properties", ".props", ".ini", ".yaml", ".yml", ".json", ".conf", ".txt", ".handlers", ".schemas", ".factories"};
+
+    private final List<Pattern> keepRules = new ArrayList<Pattern>();
+    private final Map<String, List<ArchiveEntry>> classes = new HashMap<String, List<ArchiveEntry>>();
+    private final Set<String> roots = new HashSet<String>();
+    private final Set<String> candidateRoots = new HashSet<String>();
+    private Set<String> reachable;
+
+    /**
+     * Creates a reachability analysis.
+     *
+     * @param keepRules the rules matching classes to keep even if they are not found reachable.
+     */
+    public ClassReachability(List<String> keepRules) {
+        if (keepRules != null) {
+            for (String keepRule : keepRules) {
+                this.keepRules.add(toPattern(keepRule.trim()));
+            }
+        }
+    }
+
+    /**
+     * Adds a root class.
+     *
+     * @param className the class name, in binary (dotted) or internal (slashed) form.
+     */
+    public void addRoot(String className) {
+        roots.add(className.replace('.', '/'));
+    }
+
+    /**
+     * Adds the classes of an archive to the analysis.
+     *
+     * @param archive  the archive.
+     * @param allRoots true if all the classes of the archive are roots, like those of the application itself.
+     * @throws IOException if the archive cannot be read.
+     */
+    public void addArchive(File archive, boolean allRoots) throws IOException {
+        for (ArchiveEntry entry : ArchiveReader.readEntries(archive, Predicates.<String>alwaysTrue())) {
+            String name = entry.getName();
+            String className = getClassName(name);
+            if (className != null) {
+                List<ArchiveEntry> variants = classes.get(className);
+                if (variants == null) {
+                    variants = new ArrayList<ArchiveEntry>(1);
+                    classes.put(className, variants);
+                }
+                variants.add(entry);
+                if (allRoots) {
+                    roots.add(className);
+                }
+            } else if (name.startsWith(SERVICES_PREFIX) && name.length() > SERVICES_PREFIX.length() && !name.endsWith("/")) {
+                addServiceProviders(entry);
+            } else if (isTextResource(entry)) {
+                addNamesFoundIn(readString(entry));
+            }
+        }
+    }
+
+    /**
+     * Computes the reachable classes from the roots and keep rules.
+     *
+     * @return the number of reachable classes.
+     * @throws IOException if a class cannot be read.
+     */
+    public int compute() throws IOException {
+        reachable = new HashSet<String>();
+        LinkedList<String> pending = new LinkedList<String>();
+
+        Set<String> initial = new HashSet<String>(roots);
+        initial.addAll(candidateRoots);
+        for (String className : classes.keySet()) {
+            if (isKept(className)) {
+                initial.add(className);
+            }
+        }
+        for (String className : initial) {
+            if (classes.containsKey(className) && reachable.add(className)) {
+                pending.add(className);
+            }
+        }
+
+        while (!pending.isEmpty()) {
+            for (ArchiveEntry entry : classes.get(pending.removeFirst())) {
+                for (String reference : getReferences(entry)) {
+                    if (classes.containsKey(reference) && reachable.add(reference)) {
+                        pending.add(reference);
+                    }
+                }
+            }
+        }
+
+        return reachable.size();
+    }
+
+    /**
+     * @return the number of classes found in the archives.
+     */
+    public int getClassCount() {
+        return classes.size();
+    }
+
+    /**
+     * Returns a filter of the entries to keep in a minimized archive: all resources and the reachable classes.
+     * {@link #compute()} must have been called before.
+     */
+    public Predicate<String> getEntryFilter() {
+        if (reachable == null) {
+            throw new IllegalStateException("Reachability has not been computed");
+        }
+
+        return new Predicate<String>() {
+            @Override
+            public boolean apply(String name) {
+                String className = getClassName(name);
+                return className == null || reachable.contains(className);
+            }
+        };
+    }
+
+    /**
+     * Returns the internal name of the class stored in the specified entry, taking multi-release variants into account.
+     *
+     * @return the class name or null if the entry is not a class, or is a module or package descriptor.
+     */
+    static String getClassName(String entryName) {
+        if (!entryName.endsWith(CLASS_SUFFIX)) {
+            return null;
+        }
+
+        String name = entryName.substring(0, entryName.length() - CLASS_SUFFIX.length());
+        if (name.startsWith(VERSIONS_PREFIX)) {
+            int slash = name.indexOf('/', VERSIONS_PREFIX.length());
+            if (slash == -1) {
+                return null;
+            }
+            name = name.substring(slash + 1);
+        }
+
+        if (name.equals("module-info") || name.endsWith("/package-info") || name.equals("package-info")) {
+            return null;
+        }
+        return name;
+    }
+
+    private Set<String> getReferences(ArchiveEntry entry) throws IOException {
+        Set<String> references = new HashSet<String>();
+        for (String constant : readUtf8Constants(entry)) {
+            references.add(constant);
+            if (constant.indexOf('.') != -1) {
+                references.add(constant.replace('.', '/'));
+            }
+            if (constant.indexOf(';') != -1) {
+                Matcher matcher = DESCRIPTOR_TYPE.matcher(constant);
+                while (matcher.find()) {
+                    references.add(matcher.group(1));
+                }
+            }
+        }
+        return references;
+    }
+
+    private List<String> readUtf8Constants(ArchiveEntry entry) throws IOException {
+        DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(readBytes(entry)));
+        if (dataInputStream.readInt() != 0xCAFEBABE) {
+            throw new IOException(entry.getName() + " is not a class file");
+        }
+        dataInputStream.readUnsignedShort();
+        dataInputStream.readUnsignedShort();
+
+        List<String> constants = new ArrayList<String>();
+        int constantPoolCount = dataInputStream.readUnsignedShort();
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = dataInputStream.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    constants.add(dataInputStream.readUTF());
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    dataInputStream.skipBytes(2);
+                    break;
+                case 15: // MethodHandle
+                    dataInputStream.skipBytes(3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    dataInputStream.skipBytes(4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    dataInputStream.skipBytes(8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag + " in " + entry.getName());
+            }
+        }
+        return constants;
+    }
+
+    private void addServiceProviders(ArchiveEntry entry) throws IOException {
+        for (String line : readString(entry).split("\n")) {
+            int commentIndex = line.indexOf('#');
+            String provider = (commentIndex >= 0 ? line.substring(0, commentIndex) : line).trim();
+            if (provider.length() > 0) {
+                roots.add(provider.replace('.', '/'));
+            }
+        }
+    }
+
+    private void addNamesFoundIn(String text) {
+        Matcher matcher = DOTTED_NAME.matcher(text);
+        while (matcher.find()) {
+            candidateRoots.add(matcher.group().replace('.', '/'));
+        }
+    }
+
+    private boolean isTextResource(ArchiveEntry entry) {
+        if (entry.getSize() > MAX_TEXT_RESOURCE_SIZE) {
+            return false;
+        }
+        String name = entry.getName().toLowerCase();
+        for (String textExtension : TEXT_EXTENSIONS) {
+            if (name.endsWith(textExtension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isKept(String className) {
+        String binaryName = className.replace('/', '.');
+        for (Pattern keepRule : keepRules) {
+            if (keepRule.matcher(binaryName).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Pattern toPattern(String keepRule) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < keepRule.length(); i++) {
+            char c = keepRule.charAt(i);
+            if (c == '*') {
+                if (i + 1 < keepRule.length() && keepRule.charAt(i + 1) == '*') {
+                    sb.append(".*");
+                    i++;
+                } else {
+                    sb.append("[^.]*");
+                }
+            } else {
+                sb.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(sb.toString());
+    }
+
+    private static String readString(ArchiveEntry entry) throws IOException {
+        return new String(readBytes(entry), Charsets.ISO_8859_1);
+    }
+
+    private static byte[] readBytes(ArchiveEntry entry) throws IOException {
+        InputStream inputStream = entry.openStream();
+        try {
+            return ByteStreams.toByteArray(inputStream);
+        } finally {
+            IOUtil.close(inputStream);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.archive;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Prepares archive entries concurrently on a bounded worker pool and writes them to an {@link ArchiveWriter} in
+ * submission order. At most twice the number of threads entries are pending at any time, which bounds the memory used
+ * by in-flight payloads. Since entries are written in a fixed order, the resulting archive does not depend on the number
+ * of threads.
+ */
+public class ParallelArchiver {
+    private final ArchiveWriter writer;
+    private final ExecutorService executorService;
+    private final LinkedList<Future<ArchiveEntry>> pending = new LinkedList<Future<ArchiveEntry>>();
+    private final int maxPending;
+
+    public ParallelArchiver(ArchiveWriter writer, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1");
+        }
+        this.writer = writer;
+        this.executorService = Executors.newFixedThreadPool(threads);
+        this.maxPending = threads * 2;
+    }
+
+    /**
+     * Submits an entry for preparation. Blocks while the pending window is full.
+     *
+     * @param task the task preparing the entry.
+     * @throws IOException if a previously submitted entry failed or could not be written.
+     */
+    public void add(Callable<ArchiveEntry> task) throws IOException {
+        while (pending.size() >= maxPending) {
+            writeNext();
+        }
+        pending.add(executorService.submit(task));
+    }
+
+    /**
+     * Writes all pending entries and releases the worker pool. Must be called even if an error occurred.
+     *
+     * @throws IOException if an entry failed or could not be written.
+     */
+    public void finish() throws IOException {
+        try {
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+        } finally {
+            for (Future<ArchiveEntry> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+            executorService.shutdownNow();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Future<ArchiveEntry> future = pending.removeFirst();
+        try {
+            writer.write(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while preparing archive entries");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IOException("Unable to prepare archive entry", cause);
+            }
+        }
+    }
+}
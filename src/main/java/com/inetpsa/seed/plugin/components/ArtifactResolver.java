@@ -12,6 +12,7 @@ package com.inetpsa.seed.plugin.components;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.component.annotations.Component;
 import org.codehaus.plexus.component.annotations.Requirement;
+import org.eclipse.aether.DefaultRepositorySystemSession;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
 import org.eclipse.aether.artifact.Artifact;
@@ -42,6 +43,19 @@ public class ArtifactResolver {
     private RepositorySystem repositorySystem;
 
     public String getHighestVersion(MavenProject mavenProject, String groupId, String artifactId, boolean allowSnapshots) {
+        return getHighestVersion(mavenProject, groupId, artifactId, allowSnapshots, null);
+    }
+
+    public String getHighestVersion(MavenProject mavenProject, String groupId, String artifactId, boolean allowSnapshots, VersionCache versionCache) {
+        if (versionCache != null) {
+            String cachedVersion = versionCache.get(groupId, artifactId, allowSnapshots, mavenProject.getRemoteProjectRepositories());
+            if (cachedVersion != null) {
+                return cachedVersion;
+            } else if (versionCache.isOffline()) {
+                throw new RuntimeException(String.format("No cached version found for artifact %s:%s in offline mode", groupId, artifactId));
+            }
+        }
+
         RepositorySystemSession session = mavenProject.getProjectBuildingRequest().getRepositorySession();
 
         VersionRangeRequest rangeRequest = new VersionRangeRequest();
@@ -68,6 +82,10 @@ public class ArtifactResolver {
             throw new RuntimeException(String.format("No version found for artifact %s:%s", groupId, artifactId));
         }
 
+        if (versionCache != null) {
+            versionCache.put(groupId, artifactId, allowSnapshots, mavenProject.getRemoteProjectRepositories(), highestVersion.toString());
+        }
+
         return highestVersion.toString();
     }
 
@@ -90,6 +108,34 @@ public class ArtifactResolver {
         return repositorySystem.resolveArtifact(session, new ArtifactRequest(new DefaultArtifact(coordinates), mavenProject.getRemoteProjectRepositories(), null));
     }
 
+    /**
+     * Resolves several artifacts at once. Requests are handed together to the repository system, which downloads
+     * missing artifacts concurrently with at most the specified number of threads per repository. A failure to resolve
+     * an artifact does not prevent the resolution of others.
+     *
+     * @param mavenProject the project providing the repository session and remote repositories.
+     * @param artifacts    the artifacts to resolve.
+     * @param threads      the maximum number of concurrent downloads.
+     * @return the results in request order, unresolved ones having {@link ArtifactResult#isResolved()} returning false
+     * and their errors in {@link ArtifactResult#getExceptions()}.
+     */
+    public List<ArtifactResult> resolveArtifacts(MavenProject mavenProject, List<Artifact> artifacts, int threads) {
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession(mavenProject.getProjectBuildingRequest().getRepositorySession());
+        session.setConfigProperty("aether.connector.basic.threads", threads);
+        session.setConfigProperty("aether.connector.wagon.threads", threads);
+
+        List<ArtifactRequest> artifactRequests = new ArrayList<ArtifactRequest>();
+        for (Artifact artifact : artifacts) {
+            artifactRequests.add(new ArtifactRequest(artifact, mavenProject.getRemoteProjectRepositories(), null));
+        }
+
+        try {
+            return repositorySystem.resolveArtifacts(session, artifactRequests);
+        } catch (ArtifactResolutionException e) {
+            return e.getResults();
+        }
+    }
+
     public List<ArtifactResult> resolveTransitiveArtifacts(MavenProject mavenProject, Artifact artifact, List<Dependency> managedDependencies, DependencyFilter dependencyFilter) throws DependencyResolutionException {
         RepositorySystemSession session = mavenProject.getProjectBuildingRequest().getRepositorySession();
 
@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.components;
+
+import com.google.common.util.concurrent.Striped;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.SessionData;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * In-memory cache of work results shared by all the plugin executions of a build session, so the modules of a reactor
+ * built in parallel (<code>mvn -T</code>) compute identical results only once. The cache is stored in the repository
+ * session data, which lives as long as the session. Concurrent requests for the same key wait for a single computation,
+ * while requests for other keys proceed in parallel: locking is striped by key, not global.
+ * <p>
+ * Failed computations are not cached, nor are null results, so they are attempted again by the next request.
+ */
+public class ReactorCache {
+    private static final int STRIPES = 64;
+
+    private final ConcurrentMap<String, Object> values = new ConcurrentHashMap<String, Object>();
+    private final Striped<Lock> locks = Striped.lock(STRIPES);
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    /**
+     * Returns the cache of the specified session, creating it if needed.
+     *
+     * @param session the repository session of the build.
+     * @return the cache shared by all executions of the session.
+     */
+    public static ReactorCache get(RepositorySystemSession session) {
+        // The class itself is the key, so different plugin versions in the same session do not share a cache
+        SessionData data = session.getData();
+        ReactorCache reactorCache = (ReactorCache) data.get(ReactorCache.class);
+        if (reactorCache == null) {
+            ReactorCache newReactorCache = new ReactorCache();
+            if (data.set(ReactorCache.class, null, newReactorCache)) {
+                reactorCache = newReactorCache;
+            } else {
+                reactorCache = (ReactorCache) data.get(ReactorCache.class);
+            }
+        }
+        return reactorCache;
+    }
+
+    /**
+     * Returns the value of the specified key, computing it if absent. The value is kept until the end of the session.
+     *
+     * @param key    the key, which must identify all the inputs of the computation.
+     * @param loader the computation.
+     * @return the value.
+     * @throws IOException if the computation failed.
+     */
+    public <T> T get(String key, Callable<T> loader) throws IOException {
+        return get(key, loader, false);
+    }
+
+    /**
+     * Returns the value of the specified key, computing it if absent. The value is softly referenced, so it may be
+     * reclaimed under memory pressure and computed again. This is meant for large values like archive payloads.
+     *
+     * @param key    the key, which must identify all the inputs of the computation.
+     * @param loader the computation.
+     * @return the value.
+     * @throws IOException if the computation failed.
+     */
+    public <T> T getSoftly(String key, Callable<T> loader) throws IOException {
+        return get(key, loader, true);
+    }
+
+    /**
+     * @return the number of requests answered without computation.
+     */
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of computations done.
+     */
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    private <T> T get(String key, Callable<T> loader, boolean soft) throws IOException {
+        T value = this.<T>peek(key);
+        if (value != null) {
+            hitCount.incrementAndGet();
+            return value;
+        }
+
+        Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            value = this.<T>peek(key);
+            if (value != null) {
+                hitCount.incrementAndGet();
+                return value;
+            }
+
+            missCount.incrementAndGet();
+            try {
+                value = loader.call();
+            } catch (IOException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e.getMessage(), e);
+            }
+
+            if (value != null) {
+                values.put(key, soft ? new SoftReference<T>(value) : value);
+            }
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T peek(String key) {
+        Object value = values.get(key);
+        if (value instanceof SoftReference) {
+            return ((SoftReference<T>) value).get();
+        }
+        return (T) value;
+    }
+}
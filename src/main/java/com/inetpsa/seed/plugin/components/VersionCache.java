@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.components;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.codehaus.plexus.util.IOUtil;
+import org.eclipse.aether.repository.RemoteRepository;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * On-disk cache of highest versions found by {@link ArtifactResolver#getHighestVersion}. Entries are keyed by group id,
+ * artifact id, snapshot policy and repository set, and expire after a configurable time-to-live. In offline mode, the
+ * cache is the only source of versions and expiration is ignored.
+ */
+public class VersionCache {
+    private static final String VERSION = "version";
+    private static final String TIMESTAMP = "timestamp";
+
+    private final File directory;
+    private final long ttl;
+    private final boolean offline;
+
+    /**
+     * Creates a version cache.
+     *
+     * @param directory the base cache directory.
+     * @param ttl       the time-to-live of entries in seconds.
+     * @param offline   true to answer from the cache alone, false otherwise.
+     */
+    public VersionCache(File directory, long ttl, boolean offline) {
+        this.directory = new File(directory, "versions");
+        this.ttl = ttl * 1000;
+        this.offline = offline;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * Returns the cached highest version.
+     *
+     * @return the version or null if not cached or expired.
+     */
+    public String get(String groupId, String artifactId, boolean allowSnapshots, List<RemoteRepository> repositories) {
+        File file = getFile(groupId, artifactId, allowSnapshots, repositories);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            properties.load(inputStream);
+        } catch (IOException e) {
+            // a corrupted entry is considered missing
+            return null;
+        } finally {
+            IOUtil.close(inputStream);
+        }
+
+        String version = properties.getProperty(VERSION);
+        long timestamp;
+        try {
+            timestamp = Long.parseLong(properties.getProperty(TIMESTAMP, "0"));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        if (!offline && System.currentTimeMillis() - timestamp > ttl) {
+            return null;
+        }
+
+        return version;
+    }
+
+    /**
+     * Stores the highest version. Failures are ignored since the cache is only an optimization.
+     */
+    public void put(String groupId, String artifactId, boolean allowSnapshots, List<RemoteRepository> repositories, String version) {
+        File file = getFile(groupId, artifactId, allowSnapshots, repositories);
+        Properties properties = new Properties();
+        properties.setProperty(VERSION, version);
+        properties.setProperty(TIMESTAMP, String.valueOf(System.currentTimeMillis()));
+
+        OutputStream outputStream = null;
+        File tempFile = null;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+                return;
+            }
+            tempFile = File.createTempFile(file.getName(), ".tmp", directory);
+            outputStream = new FileOutputStream(tempFile);
+            properties.store(outputStream, groupId + ":" + artifactId);
+            outputStream.close();
+            if (!tempFile.renameTo(file)) {
+                file.delete();
+                tempFile.renameTo(file);
+            }
+        } catch (IOException e) {
+            // ignore
+        } finally {
+            IOUtil.close(outputStream);
+            if (tempFile != null && tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private File getFile(String groupId, String artifactId, boolean allowSnapshots, List<RemoteRepository> repositories) {
+        Hasher hasher = Hashing.sha1().newHasher()
+                .putString(groupId, Charsets.UTF_8).putChar(':')
+                .putString(artifactId, Charsets.UTF_8).putChar(':')
+                .putBoolean(allowSnapshots);
+
+        if (repositories != null) {
+            for (RemoteRepository repository : repositories) {
+                hasher.putChar('|').putString(repository.getId(), Charsets.UTF_8)
+                        .putChar('=').putString(repository.getUrl(), Charsets.UTF_8);
+            }
+        }
+
+        return new File(directory, hasher.hash().toString() + ".properties");
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.runtime;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fully resolved and flattened list of the artifacts of an application, with their location in a Maven repository and
+ * their checksums, so they can be fetched and verified without resolving the dependency graph.
+ * <p>
+ * The text format has one element per line: <code>repository &lt;id&gt; &lt;url&gt;</code> for repositories, in
+ * lookup order, and <code>artifact &lt;coordinates&gt; &lt;path&gt; &lt;size&gt; &lt;sha1&gt; &lt;sha256&gt;</code>
+ * for artifacts, in class path order. Lines starting with <code>#</code> are comments. This class only depends on the
+ * JDK so it can be used at runtime.
+ */
+public class DependencyLock {
+    public static final String ENTRY_NAME = "META-INF/seedstack/dependencies.lock";
+
+    private static final String REPOSITORY = "repository";
+    private static final String ARTIFACT = "artifact";
+
+    private final List<Repository> repositories = new ArrayList<Repository>();
+    private final List<LockedArtifact> artifacts = new ArrayList<LockedArtifact>();
+
+    public List<Repository> getRepositories() {
+        return repositories;
+    }
+
+    public List<LockedArtifact> getArtifacts() {
+        return artifacts;
+    }
+
+    public DependencyLock addRepository(String id, String url) {
+        repositories.add(new Repository(id, url.endsWith("/") ? url.substring(0, url.length() - 1) : url));
+        return this;
+    }
+
+    public DependencyLock addArtifact(String coordinates, String path, long size, String sha1, String sha256) {
+        artifacts.add(new LockedArtifact(coordinates, path, size, sha1, sha256));
+        return this;
+    }
+
+    /**
+     * Writes the lock in text form. The stream is not closed.
+     */
+    public void write(OutputStream outputStream) throws IOException {
+        Writer writer = new OutputStreamWriter(outputStream, "UTF-8");
+        writer.write("# SeedStack dependency lock\n");
+        for (Repository repository : repositories) {
+            writer.write(REPOSITORY + " " + repository.id + " " + repository.url + "\n");
+        }
+        for (LockedArtifact artifact : artifacts) {
+            writer.write(ARTIFACT + " " + artifact.coordinates + " " + artifact.path + " " + artifact.size + " " + artifact.sha1 + " " + artifact.sha256 + "\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     * Reads a lock in text form. The stream is not closed.
+     *
+     * @throws IOException if an I/O error occurs or if the format is invalid.
+     */
+    public static DependencyLock read(InputStream inputStream) throws IOException {
+        DependencyLock dependencyLock = new DependencyLock();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] fields = line.split("\\s+");
+            if (REPOSITORY.equals(fields[0]) && fields.length == 3) {
+                dependencyLock.addRepository(fields[1], fields[2]);
+            } else if (ARTIFACT.equals(fields[0]) && fields.length == 6) {
+                try {
+                    dependencyLock.addArtifact(fields[1], fields[2], Long.parseLong(fields[3]), fields[4], fields[5]);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid size at line " + lineNumber + " of dependency lock");
+                }
+            } else {
+                throw new IOException("Invalid line " + lineNumber + " of dependency lock: " + line);
+            }
+        }
+        return dependencyLock;
+    }
+
+    public static class Repository {
+        private final String id;
+        private final String url;
+
+        Repository(String id, String url) {
+            this.id = id;
+            this.url = url;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+    }
+
+    public static class LockedArtifact {
+        private final String coordinates;
+        private final String path;
+        private final long size;
+        private final String sha1;
+        private final String sha256;
+
+        LockedArtifact(String coordinates, String path, long size, String sha1, String sha256) {
+            this.coordinates = coordinates;
+            this.path = path;
+            this.size = size;
+            this.sha1 = sha1;
+            this.sha256 = sha256;
+        }
+
+        public String getCoordinates() {
+            return coordinates;
+        }
+
+        /**
+         * @return the path of the artifact relative to a repository root, with the Maven layout.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getSha1() {
+            return sha1;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+    }
+}
@@ -0,0 +1,514 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.runtime;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+/**
+ * Long-lived JVM executing the run and cmd goals of a project, so later invocations reuse its loaded dependencies and
+ * warmed-up code. The project dependencies are on the class path of the daemon, while the project resources and classes
+ * are sent with each request and loaded by a fresh child class loader.
+ * <p>
+ * The daemon listens on a loopback port and publishes it in a descriptor file, along with a secret token which must be
+ * sent with each request and the key identifying its dependency set. Requests with another key are rejected so the
+ * client can replace the daemon. Requests are served one at a time, a request arriving in the meantime is answered with
+ * {@link #FRAME_BUSY} so the client starts another daemon. A daemon which has rejected a request or which is no longer
+ * the published one exits after its current request. The daemon exits after an idle timeout.
+ * <p>
+ * A run request invokes the main method of the application, which cannot be stopped within the JVM. The daemon is
+ * dedicated to the application: it unpublishes itself, starts a replacement daemon with the same command line for the
+ * next invocations and exits once all the application threads have terminated or the client has disconnected, which
+ * runs the shutdown hooks of the application. This class only depends on the JDK.
+ * <pre>
+ * request:  token, key, command ({@link #RUN}, {@link #CMD} or {@link #STOP}), argument count, arguments,
+ *           project URL count, project URLs
+ * response: frames made of a type and a payload, ending with {@link #FRAME_DONE}, {@link #FRAME_INVALID} or
+ *           {@link #FRAME_BUSY}
+ * </pre>
+ */
+public class ExecutionDaemon {
+    public static final String RUN = "run";
+    public static final String CMD = "cmd";
+    public static final String STOP = "stop";
+    public static final String PORT_PROPERTY = "port";
+    public static final String TOKEN_PROPERTY = "token";
+    public static final String KEY_PROPERTY = "key";
+    public static final int FRAME_OUT = 1;
+    public static final int FRAME_ERR = 2;
+    public static final int FRAME_DONE = 3;
+    public static final int FRAME_INVALID = 4;
+    public static final int FRAME_BUSY = 5;
+
+    private static final int MAX_MESSAGE_LENGTH = 16384;
+    private static final int BACKLOG = 50;
+    private static final int RUN_POLLING_INTERVAL = 500;
+    private static final int PUBLICATION_POLLING_INTERVAL = 5000;
+    private static final String CMD_DELEGATE_CLASS = "com.inetpsa.seed.plugin.CmdMojoDelegate";
+
+    private final File descriptorFile;
+    private final String key;
+    private final long idleTimeout;
+    private final PrintStream logStream;
+    private String token;
+    private ServerSocket serverSocket;
+    private boolean busy;
+    private boolean retiring;
+
+    ExecutionDaemon(File descriptorFile, String key, long idleTimeout, PrintStream logStream) {
+        this.descriptorFile = descriptorFile;
+        this.key = key;
+        this.idleTimeout = idleTimeout;
+        this.logStream = logStream;
+    }
+
+    /**
+     * Starts a daemon.
+     *
+     * @param args the descriptor file, the dependency key and the idle timeout in seconds.
+     */
+    public static void main(String[] args) throws Exception {
+        File descriptorFile = new File(args[0]);
+
+        // The client does not read the daemon output, which goes to a log file next to the descriptor
+        PrintStream logStream = new PrintStream(new FileOutputStream(new File(descriptorFile.getParentFile(), "daemon.log"), true), true);
+        System.setOut(logStream);
+        System.setErr(logStream);
+        ignoreInterrupts();
+
+        new ExecutionDaemon(descriptorFile, args[1], Long.parseLong(args[2]) * 1000, logStream).serve();
+        System.exit(0);
+    }
+
+    void serve() throws IOException {
+        serverSocket = new ServerSocket(0, BACKLOG, InetAddress.getByName(null));
+        try {
+            // An idle daemon replaced by another one exits without waiting for its idle timeout
+            serverSocket.setSoTimeout(idleTimeout > 0 ? (int) Math.min(idleTimeout, PUBLICATION_POLLING_INTERVAL) : PUBLICATION_POLLING_INTERVAL);
+            publish(serverSocket.getLocalPort());
+            log("Daemon listening on port " + serverSocket.getLocalPort());
+
+            long idleDeadline = System.currentTimeMillis() + idleTimeout;
+            while (true) {
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketTimeoutException e) {
+                    if (isBusy()) {
+                        idleDeadline = System.currentTimeMillis() + idleTimeout;
+                    } else if (!isPublished()) {
+                        log("Replaced by another daemon, exiting");
+                        return;
+                    } else if (idleTimeout > 0 && System.currentTimeMillis() >= idleDeadline) {
+                        log("Idle timeout expired, exiting");
+                        return;
+                    }
+                    continue;
+                } catch (SocketException e) {
+                    // closed once the last request is served
+                    return;
+                }
+
+                if (!setBusy()) {
+                    reject(socket);
+                    continue;
+                }
+
+                // Requests are handled out of the accepting thread, so the requests arriving meanwhile are rejected
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "seedstack-daemon-request").start();
+            }
+        } finally {
+            serverSocket.close();
+            unpublish();
+        }
+    }
+
+    private void serve(Socket socket) {
+        boolean keepServing = false;
+        try {
+            keepServing = handle(socket);
+        } catch (Exception e) {
+            log("Request failed: " + e);
+            keepServing = true;
+        } finally {
+            System.setOut(logStream);
+            System.setErr(logStream);
+            close(socket);
+            if (keepServing && (isRetiring() || !isPublished())) {
+                log("Replaced by another daemon");
+                keepServing = false;
+            }
+            synchronized (this) {
+                busy = false;
+            }
+            if (!keepServing) {
+                log("Exiting");
+                close(serverSocket);
+            }
+        }
+    }
+
+    private synchronized boolean isRetiring() {
+        return retiring;
+    }
+
+    private synchronized boolean isBusy() {
+        return busy;
+    }
+
+    private synchronized boolean setBusy() {
+        if (busy) {
+            return false;
+        }
+        busy = true;
+        return true;
+    }
+
+    private void reject(Socket socket) {
+        // The rejected client starts another daemon, which replaces this one even if it is not published yet
+        synchronized (this) {
+            retiring = true;
+        }
+        try {
+            socket.getOutputStream().write(FRAME_BUSY);
+            socket.getOutputStream().flush();
+        } catch (IOException e) {
+            // the client is gone
+        } finally {
+            close(socket);
+        }
+    }
+
+    private boolean handle(Socket socket) throws Exception {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        if (!token.equals(input.readUTF())) {
+            log("Request with an invalid token rejected");
+            return true;
+        }
+        String requestKey = input.readUTF();
+        String command = input.readUTF();
+        String[] arguments = new String[input.readInt()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = input.readUTF();
+        }
+        List<URL> projectUrls = new ArrayList<URL>();
+        int urlCount = input.readInt();
+        for (int i = 0; i < urlCount; i++) {
+            projectUrls.add(new URL(input.readUTF()));
+        }
+
+        if (STOP.equals(command)) {
+            log("Stop requested");
+            return false;
+        } else if (!key.equals(requestKey)) {
+            // The dependencies changed, the client will start another daemon
+            log("Request with other dependencies rejected");
+            output.writeByte(FRAME_INVALID);
+            output.flush();
+            return false;
+        }
+
+        log("Executing " + command);
+        ClassLoader classLoader = new OverlayClassLoader(projectUrls, null, ExecutionDaemon.class.getClassLoader());
+        int status = 0;
+        String message = "";
+        try {
+            if (RUN.equals(command)) {
+                if (!run(classLoader, arguments, socket, input, output)) {
+                    log("Client disconnected");
+                    return false;
+                }
+            } else if (CMD.equals(command)) {
+                cmd(classLoader, arguments, output);
+            } else {
+                throw new IllegalArgumentException("Unknown command " + command);
+            }
+        } catch (Exception e) {
+            status = 1;
+            message = getStackTrace(e);
+        } finally {
+            Thread.currentThread().setContextClassLoader(ExecutionDaemon.class.getClassLoader());
+        }
+
+        synchronized (output) {
+            output.writeByte(FRAME_DONE);
+            output.writeInt(status);
+            output.writeUTF(message);
+            output.flush();
+        }
+        // A daemon which ran an application exits with it
+        return !RUN.equals(command);
+    }
+
+    /**
+     * Invokes the main method of the application with the output forwarded to the client, then waits for all the
+     * application threads to terminate or for the client to disconnect.
+     *
+     * @return true if the application has terminated, false if the client has disconnected.
+     * @throws Exception the exception thrown by the main method.
+     */
+    private boolean run(ClassLoader classLoader, String[] arguments, Socket socket, DataInputStream input, DataOutputStream output) throws Exception {
+        // Other clients use the replacement from now on
+        unpublish();
+        startReplacement();
+        System.setOut(new PrintStream(new FrameOutputStream(output, FRAME_OUT), true));
+        System.setErr(new PrintStream(new FrameOutputStream(output, FRAME_ERR), true));
+
+        final Method mainMethod = classLoader.loadClass(arguments[0]).getMethod("main", String[].class);
+        final String[] mainArguments = Arrays.copyOfRange(arguments, 1, arguments.length);
+        final Exception[] failure = new Exception[1];
+        ThreadGroup applicationThreadGroup = new ThreadGroup(arguments[0]);
+        Thread mainThread = new Thread(applicationThreadGroup, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mainMethod.invoke(null, new Object[]{mainArguments});
+                } catch (InvocationTargetException e) {
+                    failure[0] = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                } catch (IllegalAccessException e) {
+                    failure[0] = e;
+                }
+            }
+        }, "main");
+        mainThread.setContextClassLoader(classLoader);
+        mainThread.start();
+
+        // The client sends nothing, reading detects its disconnection
+        socket.setSoTimeout(RUN_POLLING_INTERVAL);
+        while (true) {
+            try {
+                if (input.read() == -1) {
+                    return false;
+                }
+            } catch (SocketTimeoutException e) {
+                if (!hasLiveThreads(applicationThreadGroup)) {
+                    break;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        // The main thread is terminated, its failure is visible
+        mainThread.join();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return true;
+    }
+
+    /**
+     * Starts another daemon with the command line of this one, without waiting for it to publish itself.
+     */
+    private void startReplacement() {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ExecutionDaemon.class.getName());
+        command.add(descriptorFile.getAbsolutePath());
+        command.add(key);
+        command.add(String.valueOf(idleTimeout / 1000));
+        try {
+            Process process = new ProcessBuilder(command).directory(descriptorFile.getParentFile()).start();
+            process.getOutputStream().close();
+            process.getInputStream().close();
+            process.getErrorStream().close();
+            log("Replacement daemon started");
+        } catch (IOException e) {
+            log("Unable to start a replacement daemon: " + e);
+        }
+    }
+
+    private static boolean hasLiveThreads(ThreadGroup threadGroup) {
+        Thread[] threads = new Thread[threadGroup.activeCount() + 1];
+        int count = threadGroup.enumerate(threads);
+        for (int i = 0; i < count; i++) {
+            if (threads[i].isAlive() && !threads[i].isDaemon()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Executes a batch of commands with the output of the application discarded, then sends their results.
+     */
+    @SuppressWarnings("unchecked")
+    private void cmd(ClassLoader classLoader, String[] arguments, DataOutputStream output) throws Exception {
+        PrintStream nullStream = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                // just eat the bytes
+            }
+        });
+        System.setOut(nullStream);
+        System.setErr(nullStream);
+
+        Thread.currentThread().setContextClassLoader(classLoader);
+        PrintStream resultStream = new PrintStream(new FrameOutputStream(output, FRAME_OUT), true);
+        resultStream.print("\n\n");
+        Object result = ((Class<Callable<Object>>) classLoader.loadClass(CMD_DELEGATE_CLASS))
+                .getConstructor(String[].class, PrintStream.class)
+                .newInstance(arguments, resultStream)
+                .call();
+        resultStream.print(result + "\n\n");
+        resultStream.flush();
+    }
+
+    private void publish(int port) throws IOException {
+        token = Long.toHexString(new SecureRandom().nextLong()) + Long.toHexString(new SecureRandom().nextLong());
+        Properties properties = new Properties();
+        properties.setProperty(PORT_PROPERTY, String.valueOf(port));
+        properties.setProperty(TOKEN_PROPERTY, token);
+        properties.setProperty(KEY_PROPERTY, key);
+
+        // Daemons started concurrently by several clients publish themselves in turn, the last one is used
+        File tempFile = File.createTempFile(descriptorFile.getName(), ".tmp", descriptorFile.getParentFile());
+        OutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            // The token grants code execution, the descriptor is made private to the user
+            tempFile.setReadable(false, false);
+            tempFile.setReadable(true, true);
+            properties.store(outputStream, "SeedStack execution daemon");
+        } finally {
+            outputStream.close();
+        }
+        if (!tempFile.renameTo(descriptorFile) && !(descriptorFile.delete() && tempFile.renameTo(descriptorFile))) {
+            throw new IOException("Unable to write " + descriptorFile.getAbsolutePath());
+        }
+    }
+
+    private void unpublish() {
+        // Another daemon may have replaced this one
+        if (isPublished()) {
+            descriptorFile.delete();
+        }
+    }
+
+    private boolean isPublished() {
+        Properties properties = new Properties();
+        try {
+            InputStream inputStream = new FileInputStream(descriptorFile);
+            try {
+                properties.load(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return token.equals(properties.getProperty(TOKEN_PROPERTY));
+    }
+
+    private void log(String message) {
+        logStream.println(String.format("[%tF %<tT] %s", System.currentTimeMillis(), message));
+    }
+
+    private static void close(Socket socket) {
+        // Sockets are not closeable in Java 6
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private static void close(ServerSocket serverSocket) {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private static String getStackTrace(Throwable throwable) {
+        StringWriter stringWriter = new StringWriter();
+        throwable.printStackTrace(new PrintWriter(stringWriter));
+        String stackTrace = stringWriter.toString();
+        // Messages are sent in modified UTF-8, which is limited to 64 KB
+        return stackTrace.length() > MAX_MESSAGE_LENGTH ? stackTrace.substring(0, MAX_MESSAGE_LENGTH) : stackTrace;
+    }
+
+    private static void ignoreInterrupts() {
+        // The daemon shares the console of the first client, it must survive a Ctrl-C sent to that client
+        try {
+            Class<?> signalClass = Class.forName("sun.misc.Signal");
+            Class<?> signalHandlerClass = Class.forName("sun.misc.SignalHandler");
+            signalClass.getMethod("handle", signalClass, signalHandlerClass).invoke(null,
+                    signalClass.getConstructor(String.class).newInstance("INT"),
+                    signalHandlerClass.getField("SIG_IGN").get(null));
+        } catch (Exception e) {
+            // not supported on this JVM
+        }
+    }
+
+    /**
+     * Output stream sending each write as a frame. Writes from several threads are serialized on the data stream.
+     */
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream output;
+        private final int type;
+
+        FrameOutputStream(DataOutputStream output, int type) {
+            this.output = output;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            synchronized (output) {
+                output.writeByte(type);
+                output.writeInt(length);
+                output.write(bytes, offset, length);
+                output.flush();
+            }
+        }
+    }
+}
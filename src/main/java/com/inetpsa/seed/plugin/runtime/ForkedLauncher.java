@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.runtime;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Entry point of the run and cmd goals in a forked JVM. The plugin jar and the project dependencies are the class path
+ * of the JVM, the project resources and classes are passed in the {@link #PROJECT_PATH_PROPERTY} system property and
+ * loaded by an {@link OverlayClassLoader} on top of it, as in the {@link ExecutionDaemon}.
+ * <pre>
+ * ForkedLauncher run &lt;main class&gt; [arguments]
+ * ForkedLauncher cmd [commands]
+ * </pre>
+ * This class only depends on the JDK.
+ */
+public class ForkedLauncher {
+    public static final String PROJECT_PATH_PROPERTY = "seedstack.projectPath";
+
+    private static final String CMD_DELEGATE_CLASS = "com.inetpsa.seed.plugin.CmdMojoDelegate";
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws Throwable {
+        if (args.length == 0) {
+            System.err.println("Usage: ForkedLauncher run <main class> [arguments] | cmd [commands]");
+            System.exit(2);
+        }
+
+        ClassLoader classLoader = new OverlayClassLoader(toUrls(System.getProperty(PROJECT_PATH_PROPERTY)), null, ClassLoader.getSystemClassLoader());
+        Thread.currentThread().setContextClassLoader(classLoader);
+
+        if (ExecutionDaemon.RUN.equals(args[0])) {
+            Method mainMethod = classLoader.loadClass(args[1]).getMethod("main", String[].class);
+            try {
+                mainMethod.invoke(null, new Object[]{Arrays.copyOfRange(args, 2, args.length)});
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        } else if (ExecutionDaemon.CMD.equals(args[0])) {
+            // Only the result of the command is printed
+            PrintStream stdOut = new PrintStream(new FileOutputStream(FileDescriptor.out));
+            PrintStream stdErr = new PrintStream(new FileOutputStream(FileDescriptor.err));
+            PrintStream nullStream = new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    // just eat the bytes
+                }
+            });
+            System.setOut(nullStream);
+            System.setErr(nullStream);
+
+            try {
+                stdOut.print("\n\n");
+                Object result = ((Class<Callable<Object>>) classLoader.loadClass(CMD_DELEGATE_CLASS))
+                        .getConstructor(String[].class, PrintStream.class)
+                        .newInstance(Arrays.copyOfRange(args, 1, args.length), stdOut)
+                        .call();
+                stdOut.print(result + "\n\n");
+                stdOut.flush();
+            } catch (Exception e) {
+                e.printStackTrace(stdErr);
+                stdErr.flush();
+                System.exit(1);
+            }
+            System.exit(0);
+        } else {
+            throw new IllegalArgumentException("Unknown command " + args[0]);
+        }
+    }
+
+    private static List<URL> toUrls(String path) throws MalformedURLException {
+        List<URL> urls = new ArrayList<URL>();
+        if (path != null) {
+            for (String element : path.split(File.pathSeparator)) {
+                if (element.length() > 0) {
+                    urls.add(new File(element).toURI().toURL());
+                }
+            }
+        }
+        return urls;
+    }
+}
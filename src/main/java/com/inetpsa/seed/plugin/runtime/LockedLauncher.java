@@ -0,0 +1,405 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.runtime;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Launcher of lightweight capsules holding a {@link DependencyLock}. The locked artifacts missing from the local Maven
+ * repository are downloaded concurrently and verified against their checksums, then the application is started in a
+ * class loader made of the application jar and the locked artifacts. No dependency graph is resolved at runtime.
+ * <p>
+ * The local repository defaults to <code>~/.m2/repository</code> and can be changed with the
+ * <code>seedstack.localRepository</code> system property. The application jar is extracted once in
+ * <code>~/.seedstack/capsules</code>, which can be changed with the <code>seedstack.capsuleCache</code> system property.
+ * Downloads are reported on the standard error when the <code>seedstack.verbose</code> system property is true.
+ * <p>
+ * The application runs in the launcher JVM, unless JVM options are given by the <code>JVM-Args</code> and
+ * <code>System-Properties</code> manifest attributes or by the <code>capsule.jvm.args</code> system property, as
+ * Capsule would honor them. The application is then started in a child JVM with these options and its exit code is
+ * returned by the launcher.
+ * This class only depends on the JDK since it runs before any dependency is available.
+ */
+public class LockedLauncher {
+    public static final String LOCK_ATTRIBUTE = "SeedStack-Dependency-Lock";
+    public static final String APPLICATION_JAR_ATTRIBUTE = "SeedStack-Application-Jar";
+
+    private static final String APPLICATION_CLASS_ATTRIBUTE = "Application-Class";
+    private static final String APPLICATION_NAME_ATTRIBUTE = "Application-Name";
+    private static final String JVM_ARGS_ATTRIBUTE = "JVM-Args";
+    private static final String SYSTEM_PROPERTIES_ATTRIBUTE = "System-Properties";
+    private static final String JVM_ARGS_PROPERTY = "capsule.jvm.args";
+    private static final int FETCH_THREADS = 4;
+    private static final int CONNECT_TIMEOUT = 30000;
+    private static final int READ_TIMEOUT = 60000;
+    private static final int BUFFER_SIZE = 65536;
+    private static final boolean VERBOSE = Boolean.getBoolean("seedstack.verbose");
+
+    public static void main(String[] args) throws Throwable {
+        File capsuleFile = new File(LockedLauncher.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        List<URL> classPath = new ArrayList<URL>();
+        List<String> jvmArgs = new ArrayList<String>();
+        String applicationClass;
+        DependencyLock dependencyLock;
+
+        JarFile capsule = new JarFile(capsuleFile);
+        try {
+            Attributes attributes = capsule.getManifest().getMainAttributes();
+            applicationClass = attributes.getValue(APPLICATION_CLASS_ATTRIBUTE);
+            jvmArgs.addAll(split(attributes.getValue(JVM_ARGS_ATTRIBUTE)));
+            for (String property : split(attributes.getValue(SYSTEM_PROPERTIES_ATTRIBUTE))) {
+                jvmArgs.add("-D" + property);
+            }
+            jvmArgs.addAll(split(System.getProperty(JVM_ARGS_PROPERTY)));
+            InputStream lockStream = capsule.getInputStream(getEntry(capsule, attributes.getValue(LOCK_ATTRIBUTE)));
+            try {
+                dependencyLock = DependencyLock.read(lockStream);
+            } finally {
+                lockStream.close();
+            }
+            classPath.add(extractApplicationJar(capsule, attributes).toURI().toURL());
+        } finally {
+            capsule.close();
+        }
+
+        for (File file : fetch(dependencyLock, getDirectory("seedstack.localRepository", ".m2/repository"))) {
+            classPath.add(file.toURI().toURL());
+        }
+
+        if (jvmArgs.isEmpty()) {
+            launch(applicationClass, classPath, args);
+        } else {
+            System.exit(relaunch(jvmArgs, applicationClass, classPath, args));
+        }
+    }
+
+    /**
+     * Makes sure all the locked artifacts are present and valid in the local repository.
+     *
+     * @param dependencyLock  the lock.
+     * @param localRepository the local repository.
+     * @return the artifact files, in class path order.
+     * @throws IOException if an artifact cannot be fetched or does not match its checksums.
+     */
+    static List<File> fetch(final DependencyLock dependencyLock, File localRepository) throws IOException, InterruptedException {
+        List<File> files = new ArrayList<File>();
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        ExecutorService executorService = Executors.newFixedThreadPool(FETCH_THREADS);
+        try {
+            for (final DependencyLock.LockedArtifact artifact : dependencyLock.getArtifacts()) {
+                final File file = new File(localRepository, artifact.getPath());
+                files.add(file);
+                if (!isValid(file, artifact)) {
+                    futures.add(executorService.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            download(dependencyLock.getRepositories(), artifact, file);
+                            return null;
+                        }
+                    }));
+                }
+            }
+
+            StringBuilder failures = new StringBuilder();
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failures.append("\n  ").append(e.getCause().getMessage());
+                }
+            }
+            if (failures.length() > 0) {
+                throw new IOException("Unable to fetch locked artifacts:" + failures);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        return files;
+    }
+
+    private static void download(List<DependencyLock.Repository> repositories, DependencyLock.LockedArtifact artifact, File file) throws IOException {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Unable to create directory " + directory.getAbsolutePath());
+        }
+
+        List<String> errors = new ArrayList<String>();
+        for (DependencyLock.Repository repository : repositories) {
+            URL url = new URL(repository.getUrl() + "/" + artifact.getPath());
+            File tempFile = File.createTempFile(file.getName(), ".tmp", directory);
+            try {
+                if (VERBOSE) {
+                    System.err.println("Fetching " + url);
+                }
+                String[] digests = copy(url, tempFile);
+                if (tempFile.length() != artifact.getSize() || !digests[0].equalsIgnoreCase(artifact.getSha1()) || !digests[1].equalsIgnoreCase(artifact.getSha256())) {
+                    errors.add(repository.getId() + ": checksum mismatch");
+                    continue;
+                }
+                if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+                    throw new IOException("Unable to store " + file.getAbsolutePath());
+                }
+                return;
+            } catch (FileNotFoundException e) {
+                errors.add(repository.getId() + ": not found");
+            } catch (IOException e) {
+                errors.add(repository.getId() + ": " + e.getMessage());
+            } finally {
+                if (tempFile.exists()) {
+                    tempFile.delete();
+                }
+            }
+        }
+        throw new IOException(artifact.getCoordinates() + " " + errors);
+    }
+
+    private static String[] copy(URL url, File file) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        if (connection instanceof HttpURLConnection && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+            throw new FileNotFoundException(url.toString());
+        }
+
+        InputStream inputStream = connection.getInputStream();
+        try {
+            OutputStream outputStream = new FileOutputStream(file);
+            try {
+                return digest(inputStream, outputStream);
+            } finally {
+                outputStream.close();
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static boolean isValid(File file, DependencyLock.LockedArtifact artifact) throws IOException {
+        if (!file.isFile() || file.length() != artifact.getSize()) {
+            return false;
+        }
+
+        // A local artifact is trusted on the same checksums as a downloaded one
+        String[] digests;
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            digests = digest(inputStream, null);
+        } finally {
+            inputStream.close();
+        }
+        return digests[0].equalsIgnoreCase(artifact.getSha1()) && digests[1].equalsIgnoreCase(artifact.getSha256());
+    }
+
+    /**
+     * Reads a stream to its end, copying it to an output stream if not null.
+     *
+     * @return the SHA-1 and SHA-256 digests of the stream, in hexadecimal.
+     */
+    private static String[] digest(InputStream inputStream, OutputStream outputStream) throws IOException {
+        MessageDigest sha1 = getMessageDigest("SHA-1");
+        MessageDigest sha256 = getMessageDigest("SHA-256");
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            if (outputStream != null) {
+                outputStream.write(buffer, 0, read);
+            }
+            sha1.update(buffer, 0, read);
+            sha256.update(buffer, 0, read);
+        }
+        return new String[]{toHex(sha1.digest()), toHex(sha256.digest())};
+    }
+
+    private static File extractApplicationJar(JarFile capsule, Attributes attributes) throws IOException {
+        JarEntry entry = getEntry(capsule, attributes.getValue(APPLICATION_JAR_ATTRIBUTE));
+        String applicationName = attributes.getValue(APPLICATION_NAME_ATTRIBUTE);
+        File directory = new File(getDirectory("seedstack.capsuleCache", ".seedstack/capsules"), applicationName == null ? "default" : applicationName);
+        String name = entry.getName();
+        File file = new File(directory, name.substring(0, name.length() - ".jar".length()) + "-" + Long.toHexString(entry.getCrc()) + ".jar");
+        if (file.isFile() && file.length() == entry.getSize()) {
+            return file;
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Unable to create directory " + directory.getAbsolutePath());
+        }
+        File tempFile = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            InputStream inputStream = capsule.getInputStream(entry);
+            try {
+                OutputStream outputStream = new FileOutputStream(tempFile);
+                try {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = inputStream.read(buffer)) != -1) {
+                        outputStream.write(buffer, 0, read);
+                    }
+                } finally {
+                    outputStream.close();
+                }
+            } finally {
+                inputStream.close();
+            }
+            if (!tempFile.renameTo(file) && !file.isFile()) {
+                throw new IOException("Unable to extract " + file.getAbsolutePath());
+            }
+        } finally {
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+        return file;
+    }
+
+    private static void launch(String applicationClass, List<URL> classPath, String[] args) throws Throwable {
+        ClassLoader classLoader = new URLClassLoader(classPath.toArray(new URL[classPath.size()]), ClassLoader.getSystemClassLoader().getParent());
+        Thread.currentThread().setContextClassLoader(classLoader);
+        Method mainMethod = classLoader.loadClass(applicationClass).getMethod("main", String[].class);
+        try {
+            mainMethod.invoke(null, new Object[]{args});
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Starts the application in a child JVM with the specified options, forwarding its standard streams.
+     *
+     * @return the exit code of the child JVM.
+     */
+    private static int relaunch(List<String> jvmArgs, String applicationClass, List<URL> classPath, String[] args) throws Exception {
+        StringBuilder classPathString = new StringBuilder();
+        for (URL url : classPath) {
+            if (classPathString.length() > 0) {
+                classPathString.append(File.pathSeparatorChar);
+            }
+            classPathString.append(new File(url.toURI()).getAbsolutePath());
+        }
+
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(classPathString.toString());
+        command.add(applicationClass);
+        command.addAll(Arrays.asList(args));
+        if (VERBOSE) {
+            System.err.println("Relaunching with " + jvmArgs);
+        }
+
+        final Process process = new ProcessBuilder(command).start();
+        Thread[] pumps = new Thread[]{
+                pump(process.getInputStream(), System.out),
+                pump(process.getErrorStream(), System.err)
+        };
+        // Never joined, the child JVM may exit before the standard input is closed
+        Thread inputPump = pump(System.in, process.getOutputStream());
+        inputPump.setDaemon(true);
+        inputPump.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                process.destroy();
+            }
+        }));
+        for (Thread pump : pumps) {
+            pump.start();
+        }
+        int exitCode = process.waitFor();
+        for (Thread pump : pumps) {
+            pump.join();
+        }
+        return exitCode;
+    }
+
+    private static Thread pump(final InputStream inputStream, final OutputStream outputStream) {
+        return new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                try {
+                    while ((read = inputStream.read(buffer)) != -1) {
+                        outputStream.write(buffer, 0, read);
+                        outputStream.flush();
+                    }
+                } catch (IOException e) {
+                    // the other end is closed
+                }
+            }
+        });
+    }
+
+    private static List<String> split(String value) {
+        List<String> values = new ArrayList<String>();
+        if (value != null) {
+            for (String part : value.trim().split("\\s+")) {
+                if (part.length() > 0) {
+                    values.add(part);
+                }
+            }
+        }
+        return values;
+    }
+
+    private static JarEntry getEntry(JarFile jarFile, String name) throws IOException {
+        JarEntry entry = name == null ? null : jarFile.getJarEntry(name);
+        if (entry == null) {
+            throw new IOException("Entry " + name + " not found in " + jarFile.getName());
+        }
+        return entry;
+    }
+
+    private static File getDirectory(String property, String defaultPath) {
+        String value = System.getProperty(property);
+        return value != null ? new File(value) : new File(System.getProperty("user.home"), defaultPath);
+    }
+
+    private static MessageDigest getMessageDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm + " is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
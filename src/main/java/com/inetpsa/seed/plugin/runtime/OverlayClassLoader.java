@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.runtime;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Class loader of a project where the resource directories overlay the classes directory. The classes directory holds
+ * copies of the resources made by <code>process-resources</code>, possibly outdated: a resource found in a resource
+ * directory hides the resource of the same name in the classes directory, for single lookups as well as for
+ * enumerations. Nothing is changed on disk. This class only depends on the JDK.
+ */
+public class OverlayClassLoader extends URLClassLoader {
+    private final List<File> overlayDirectories = new ArrayList<File>();
+    private final String baseUrl;
+
+    /**
+     * Creates an overlay class loader.
+     *
+     * @param projectUrls    the URLs of the project resource directories, followed by the URL of the classes directory.
+     * @param additionalUrls the other URLs of the loader, searched after the project ones, or null.
+     * @param parent         the parent class loader.
+     */
+    public OverlayClassLoader(List<URL> projectUrls, List<URL> additionalUrls, ClassLoader parent) {
+        super(concat(projectUrls, additionalUrls), parent);
+        for (URL url : projectUrls.subList(0, projectUrls.size() - 1)) {
+            overlayDirectories.add(toFile(url));
+        }
+        baseUrl = projectUrls.get(projectUrls.size() - 1).toExternalForm();
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        Enumeration<URL> resources = super.findResources(name);
+        if (!isOverlaid(name)) {
+            return resources;
+        }
+
+        List<URL> visibleResources = new ArrayList<URL>();
+        while (resources.hasMoreElements()) {
+            URL resource = resources.nextElement();
+            if (!resource.toExternalForm().startsWith(baseUrl)) {
+                visibleResources.add(resource);
+            }
+        }
+        return Collections.enumeration(visibleResources);
+    }
+
+    private boolean isOverlaid(String name) {
+        for (File overlayDirectory : overlayDirectories) {
+            if (new File(overlayDirectory, name).isFile()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static URL[] concat(List<URL> projectUrls, List<URL> additionalUrls) {
+        List<URL> urls = new ArrayList<URL>(projectUrls);
+        if (additionalUrls != null) {
+            urls.addAll(additionalUrls);
+        }
+        return urls.toArray(new URL[urls.size()]);
+    }
+
+    private static File toFile(URL url) {
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return new File(url.getPath());
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.runtime;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Index of the classes of an application computed at build time, so the classpath does not have to be scanned at
+ * startup: for each class, the location it comes from, its super class, its interfaces and its runtime visible
+ * annotations. Class names are binary (dotted) names. Types annotated with an annotation and subtypes of a type are
+ * looked up without loading any class.
+ * <p>
+ * The binary format starts with a magic number and a format version, followed by the location names, the name table
+ * and the class table, classes pointing to locations and names by their index. This class only depends on the JDK so it
+ * can be used at runtime.
+ * <p>
+ * Only the format is defined for now: the Seed kernel still scans the classpath, nothing produces or reads the index
+ * until it can be handed to the kernel.
+ */
+public class ScanIndex {
+    public static final String ENTRY_NAME = "META-INF/seedstack/scan.idx";
+    public static final int MAGIC = 0x53534958;
+    public static final int VERSION = 1;
+
+    private final List<String> locations = new ArrayList<String>();
+    private final Map<String, ClassInfo> classes = new TreeMap<String, ClassInfo>();
+    private final Map<String, Set<String>> annotatedTypes = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> directSubTypes = new HashMap<String, Set<String>>();
+
+    /**
+     * Adds a class to the index. A class already found in a previous location is ignored, as it would be by a class
+     * loader.
+     *
+     * @param location        the name of the location (jar or directory) of the class.
+     * @param className       the class name.
+     * @param superClassName  the super class name, or null for <code>java.lang.Object</code> and interfaces.
+     * @param interfaceNames  the names of the interfaces directly implemented by the class.
+     * @param annotationNames the names of the runtime visible annotations of the class.
+     */
+    public void addClass(String location, String className, String superClassName, List<String> interfaceNames, List<String> annotationNames) {
+        if (classes.containsKey(className)) {
+            return;
+        }
+
+        int locationIndex = locations.indexOf(location);
+        if (locationIndex == -1) {
+            locationIndex = locations.size();
+            locations.add(location);
+        }
+
+        ClassInfo classInfo = new ClassInfo(locationIndex, superClassName, interfaceNames, annotationNames);
+        classes.put(className, classInfo);
+        if (superClassName != null) {
+            register(directSubTypes, superClassName, className);
+        }
+        for (String interfaceName : interfaceNames) {
+            register(directSubTypes, interfaceName, className);
+        }
+        for (String annotationName : annotationNames) {
+            register(annotatedTypes, annotationName, className);
+        }
+    }
+
+    /**
+     * @return the names of the indexed locations, in classpath order.
+     */
+    public List<String> getLocations() {
+        return Collections.unmodifiableList(locations);
+    }
+
+    /**
+     * @return the names of the indexed classes.
+     */
+    public Set<String> getClasses() {
+        return Collections.unmodifiableSet(classes.keySet());
+    }
+
+    /**
+     * @param className the class name.
+     * @return the name of the location of the class, or null if the class is not indexed.
+     */
+    public String getLocation(String className) {
+        ClassInfo classInfo = classes.get(className);
+        return classInfo == null ? null : locations.get(classInfo.location);
+    }
+
+    /**
+     * @param annotationName the annotation name.
+     * @return the names of the classes directly annotated with the annotation.
+     */
+    public Set<String> getTypesAnnotatedWith(String annotationName) {
+        Set<String> types = annotatedTypes.get(annotationName);
+        return types == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(types);
+    }
+
+    /**
+     * @param typeName the class or interface name, which does not have to be indexed itself.
+     * @return the names of the indexed classes extending or implementing the type, directly or not.
+     */
+    public Set<String> getSubTypesOf(String typeName) {
+        Set<String> subTypes = new HashSet<String>();
+        LinkedList<String> pending = new LinkedList<String>();
+        pending.add(typeName);
+        while (!pending.isEmpty()) {
+            Set<String> direct = directSubTypes.get(pending.removeFirst());
+            if (direct != null) {
+                for (String subType : direct) {
+                    if (subTypes.add(subType)) {
+                        pending.add(subType);
+                    }
+                }
+            }
+        }
+        return subTypes;
+    }
+
+    /**
+     * Writes the index in binary form. The stream is not closed.
+     */
+    public void write(OutputStream outputStream) throws IOException {
+        Map<String, Integer> names = new HashMap<String, Integer>();
+        List<String> nameTable = new ArrayList<String>();
+        for (Map.Entry<String, ClassInfo> entry : classes.entrySet()) {
+            addName(names, nameTable, entry.getKey());
+            ClassInfo classInfo = entry.getValue();
+            if (classInfo.superClassName != null) {
+                addName(names, nameTable, classInfo.superClassName);
+            }
+            for (String interfaceName : classInfo.interfaceNames) {
+                addName(names, nameTable, interfaceName);
+            }
+            for (String annotationName : classInfo.annotationNames) {
+                addName(names, nameTable, annotationName);
+            }
+        }
+
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        dataOutputStream.writeInt(MAGIC);
+        dataOutputStream.writeShort(VERSION);
+
+        dataOutputStream.writeInt(locations.size());
+        for (String location : locations) {
+            dataOutputStream.writeUTF(location);
+        }
+
+        dataOutputStream.writeInt(nameTable.size());
+        for (String name : nameTable) {
+            dataOutputStream.writeUTF(name);
+        }
+
+        dataOutputStream.writeInt(classes.size());
+        for (Map.Entry<String, ClassInfo> entry : classes.entrySet()) {
+            ClassInfo classInfo = entry.getValue();
+            dataOutputStream.writeInt(names.get(entry.getKey()));
+            dataOutputStream.writeInt(classInfo.location);
+            dataOutputStream.writeInt(classInfo.superClassName == null ? -1 : names.get(classInfo.superClassName));
+            writeNames(dataOutputStream, names, classInfo.interfaceNames);
+            writeNames(dataOutputStream, names, classInfo.annotationNames);
+        }
+        dataOutputStream.flush();
+    }
+
+    /**
+     * Reads an index in binary form. The stream is not closed.
+     *
+     * @throws IOException if an I/O error occurs or if the format is not supported.
+     */
+    public static ScanIndex read(InputStream inputStream) throws IOException {
+        DataInputStream dataInputStream = new DataInputStream(inputStream);
+        if (dataInputStream.readInt() != MAGIC) {
+            throw new IOException("Not a scan index");
+        }
+
+        int version = dataInputStream.readUnsignedShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported scan index version " + version);
+        }
+
+        // Locations are restored first, so those without classes are kept in their original order
+        ScanIndex scanIndex = new ScanIndex();
+        List<String> locations = scanIndex.locations;
+        int locationCount = dataInputStream.readInt();
+        for (int i = 0; i < locationCount; i++) {
+            locations.add(dataInputStream.readUTF());
+        }
+
+        String[] nameTable = new String[dataInputStream.readInt()];
+        for (int i = 0; i < nameTable.length; i++) {
+            nameTable[i] = dataInputStream.readUTF();
+        }
+
+        int classCount = dataInputStream.readInt();
+        try {
+            for (int i = 0; i < classCount; i++) {
+                String className = nameTable[dataInputStream.readInt()];
+                String location = locations.get(dataInputStream.readInt());
+                int superClassIndex = dataInputStream.readInt();
+                List<String> interfaceNames = readNames(dataInputStream, nameTable);
+                List<String> annotationNames = readNames(dataInputStream, nameTable);
+                scanIndex.addClass(location, className, superClassIndex == -1 ? null : nameTable[superClassIndex], interfaceNames, annotationNames);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupted scan index", e);
+        }
+        return scanIndex;
+    }
+
+    /**
+     * Loads the index of an application.
+     *
+     * @param classLoader the application class loader.
+     * @return the first index found by the class loader, or null if there is none.
+     * @throws IOException if the index cannot be read.
+     */
+    public static ScanIndex load(ClassLoader classLoader) throws IOException {
+        URL url = classLoader.getResource(ENTRY_NAME);
+        if (url == null) {
+            return null;
+        }
+
+        InputStream inputStream = new BufferedInputStream(url.openStream());
+        try {
+            return read(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static void register(Map<String, Set<String>> table, String key, String className) {
+        Set<String> classNames = table.get(key);
+        if (classNames == null) {
+            classNames = new HashSet<String>();
+            table.put(key, classNames);
+        }
+        classNames.add(className);
+    }
+
+    private static void addName(Map<String, Integer> names, List<String> nameTable, String name) {
+        if (!names.containsKey(name)) {
+            names.put(name, nameTable.size());
+            nameTable.add(name);
+        }
+    }
+
+    private static void writeNames(DataOutputStream dataOutputStream, Map<String, Integer> names, List<String> classNames) throws IOException {
+        dataOutputStream.writeShort(classNames.size());
+        for (String className : classNames) {
+            dataOutputStream.writeInt(names.get(className));
+        }
+    }
+
+    private static List<String> readNames(DataInputStream dataInputStream, String[] nameTable) throws IOException {
+        int count = dataInputStream.readUnsignedShort();
+        List<String> classNames = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            classNames.add(nameTable[dataInputStream.readInt()]);
+        }
+        return classNames;
+    }
+
+    private static class ClassInfo {
+        private final int location;
+        private final String superClassName;
+        private final List<String> interfaceNames;
+        private final List<String> annotationNames;
+
+        private ClassInfo(int location, String superClassName, List<String> interfaceNames, List<String> annotationNames) {
+            this.location = location;
+            this.superClassName = superClassName;
+            this.interfaceNames = interfaceNames;
+            this.annotationNames = annotationNames;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2013-2015 by The SeedStack authors. All rights reserved.
+ *
+ * This file is part of SeedStack, An enterprise-oriented full development stack.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.inetpsa.seed.plugin.runtime;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Starts and stops the Seed kernel of an application loaded by another class loader. The kernel is driven through
+ * reflection since its classes are only available in the application class loader. This class only depends on the JDK.
+ */
+public final class SeedKernel {
+    private static final String NUUN_CORE_CLASS = "io.nuun.kernel.core.NuunCore";
+    private static final String KERNEL_CONFIGURATION_CLASS = "io.nuun.kernel.api.config.KernelConfiguration";
+
+    private SeedKernel() {
+        // no instantiation allowed
+    }
+
+    /**
+     * Creates, initializes and starts a kernel. The application class loader becomes the context class loader of the
+     * current thread, since the kernel scans the classpath through it.
+     *
+     * @param classLoader the application class loader.
+     * @return the started kernel.
+     * @throws Exception the exception thrown by the kernel.
+     */
+    public static Object start(ClassLoader classLoader) throws Exception {
+        Thread.currentThread().setContextClassLoader(classLoader);
+        try {
+            Class<?> nuunCoreClass = classLoader.loadClass(NUUN_CORE_CLASS);
+            Class<?> kernelConfigurationClass = classLoader.loadClass(KERNEL_CONFIGURATION_CLASS);
+            Object kernelConfiguration = nuunCoreClass.getMethod("newKernelConfiguration").invoke(null);
+            Object kernel = nuunCoreClass.getMethod("createKernel", kernelConfigurationClass).invoke(null, kernelConfiguration);
+            kernel.getClass().getMethod("init").invoke(kernel);
+            kernel.getClass().getMethod("start").invoke(kernel);
+            return kernel;
+        } catch (InvocationTargetException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Stops a kernel.
+     *
+     * @param kernel the kernel returned by {@link #start(ClassLoader)}.
+     * @throws Exception the exception thrown by the kernel.
+     */
+    public static void stop(Object kernel) throws Exception {
+        try {
+            kernel.getClass().getMethod("stop").invoke(kernel);
+        } catch (InvocationTargetException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static Exception unwrap(InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) {
+            return (Exception) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return e;
+    }
+}